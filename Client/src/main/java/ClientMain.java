@@ -1,30 +1,72 @@
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
 
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 
 public class ClientMain {
-    static Scanner scanner = new Scanner(System.in);
     static ActorRef ioActor;
 
-    public static void main(String[] args) {
+    // ClientMain [--batch <command file>|-]
+    public static void main(String[] args) throws Exception {
+        // Commands are read from the keyboard, a pipe or a file
+        InputStream input = System.in;
+        if (args.length > 0) {
+            if (args.length != 2 || !args[0].equals("--batch")) {
+                System.out.println("Usage: ClientMain [--batch <command file>|-]");
+                return;
+            }
+            if (!args[1].equals("-"))
+                input = new FileInputStream(args[1]);
+        }
+
         // Creating the system
         ActorSystem system = ActorSystem.create("Client");
         // Creating system io actor
         ioActor = system.actorOf(Props.create(IOActor.class), "IOActor");
 
-        readAndFire();
+        Config config = system.settings().config().getConfig("chat.input");
+        readAndFire(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), config.getBytes("buffer-size").intValue()),
+                config.getInt("batch-lines"), config.getDuration("batch-timeout"));
     }
 
-    private static void readAndFire() {
+    private static void readAndFire(BufferedReader reader, int batchLines, Duration timeout) throws Exception {
+        ArrayList<String> lines = new ArrayList<>(batchLines);
         String message;
 
-        // Read user input and pass it to io actor
-        while (true) {
-            message = scanner.nextLine();
-            ioActor.tell(new ProcessMessage(message), ActorRef.noSender());
+        // Read user input and pass it to io actor, lines already buffered go together
+        while ((message = reader.readLine()) != null) {
+            lines.add(message);
+            if (lines.size() < batchLines && ready(reader))
+                continue;
+            if (lines.size() == 1) {
+                ioActor.tell(new ProcessMessage(message), ActorRef.noSender());
+            } else {
+                // Wait for the batch to be processed before reading on, keeping the io actor's mailbox short
+                Patterns.ask(ioActor, new ProcessBatch(lines.toArray(new String[0])), timeout)
+                        .toCompletableFuture().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            lines.clear();
+        }
+    }
+
+    // Whether more input is buffered, so the next line is read without waiting for the user
+    private static boolean ready(BufferedReader reader) {
+        try {
+            return reader.ready();
+        } catch (IOException e) {
+            return false;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+// Tokens of a command line, split by single spaces like String.split(" "). The line is scanned once into token
+// offsets, keywords are matched in place and only the values a command keeps are copied out. Reused line after line.
+public class CommandLine {
+    // Words of the command grammar, returned by keyword() as these very constants
+    private static final String[] KEYWORDS = {"/user", "/group", "connect", "disconnect", "text", "file", "create",
+            "leave", "send", "user", "invite", "remove", "mute", "unmute", "coadmin", "add"};
+
+    private String line;
+    private int[] starts = new int[16]; // Start offset of every token
+    private int[] ends = new int[16]; // End offset of every token
+    private int count;
+
+    // Split line into tokens, trailing empty tokens are dropped
+    public CommandLine parse(String line) {
+        this.line = line;
+        count = 0;
+        int start = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i < line.length() && line.charAt(i) != ' ')
+                continue;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count++] = i;
+            start = i + 1;
+        }
+        while (count > 0 && starts[count - 1] == ends[count - 1])
+            count--;
+        // An empty line is a single empty token
+        if (line.isEmpty())
+            count = 1;
+        return this;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public String token(int index) {
+        return line.substring(starts[index], ends[index]);
+    }
+
+    // The keyword constant token is, or an empty string if it is not a keyword
+    public String keyword(int index) {
+        int length = ends[index] - starts[index];
+        for (String keyword : KEYWORDS) {
+            if (keyword.length() == length && line.startsWith(keyword, starts[index]))
+                return keyword;
+        }
+        return "";
+    }
+
+    public boolean is(int index, String word, boolean ignoreCase) {
+        int length = ends[index] - starts[index];
+        return word.length() == length && line.regionMatches(ignoreCase, starts[index], word, 0, length);
+    }
+
+    // Tokens from index to the last one with the spaces between them, as typed
+    public String rest(int index) {
+        return line.substring(starts[index], ends[count - 1]);
+    }
+
+    // Token as a long, throws NumberFormatException if it is not one
+    public long parseLong(int index) {
+        int i = starts[index];
+        int end = ends[index];
+        boolean negative = i < end && line.charAt(i) == '-';
+        if (negative || (i < end && line.charAt(i) == '+'))
+            i++;
+        if (i == end)
+            throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+        long value = 0;
+        try {
+            for (; i < end; i++) {
+                int digit = Character.digit(line.charAt(i), 10);
+                if (digit < 0)
+                    throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+                value = Math.addExact(Math.multiplyExact(value, 10), negative ? -digit : digit);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+        }
+        return value;
+    }
+}
@@ -1,35 +1,77 @@
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorRef;
 import akka.actor.ActorSelection;
+import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.pattern.Patterns;
-import scala.concurrent.Await;
-import scala.concurrent.Future;
-import scala.concurrent.duration.Duration;
+import com.typesafe.config.Config;
 
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.TimeUnit;
-
-public class CommunicationActor extends AbstractActor {
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+public class CommunicationActor extends AbstractActorWithTimers {
     private ActorSelection manager; // Server manager
+    private ActorSelection blobStore; // Server store of the files sent to groups
     private ActorRef ioActor; // IO actor to perform read and write operations
+    private ActorRef fileReceiver; // Writes received files to disk away from this actor
     private User user = null; // Current user
-    private ActorRef inviter = null; // Inviter actor in group invite operations
+    private long nextRequestId = 0; // Correlation id of the next request
+    // Requests waiting for a response, by correlation id
+    private HashMap<Long, PendingRequest> pendingRequests = new HashMap<>();
+    // Files being sent, by transfer id
+    private HashMap<String, OutgoingTransfer> outgoingTransfers = new HashMap<>();
+    // Group files being fetched from the server store, by fetch id
+    private HashMap<String, FileFetch> fileFetches = new HashMap<>();
+    private int chunkSize; // Size of a file chunk in bytes
+    private int window; // Chunks of a transfer allowed to be unacknowledged at once
+    // Communication actors of users looked up recently, by username
+    private HashMap<String, CachedUser> userCache = new HashMap<>();
+    private Duration userCacheTtl; // Time a looked up user is trusted without asking the server again
+    // Invites sent and waiting for an answer, by invite id
+    private HashMap<String, SentInvite> sentInvites = new HashMap<>();
+    // Invites received and not answered yet, by invite id in arrival order
+    private LinkedHashMap<String, ReceivedInvite> receivedInvites = new LinkedHashMap<>();
+    private Duration inviteTimeout; // Time an invite waits for an answer before it is considered declined
+    private Timestamps timestamps = new Timestamps(); // Time prefix of received messages
+
+    private static final Duration SERVER_TIMEOUT = Duration.ofMillis(1000);
+    // Printed when the server has not replied in time
+    static final String SERVER_OFFLINE = "server is offline! try again later!";
+    static final String CONNECT_OFFLINE = "server is offline!"; // Connecting is not worth retrying later
 
     public CommunicationActor(ActorRef ioActor) {
         this.ioActor = ioActor;
+        Config config = context().system().settings().config();
+        chunkSize = config.getBytes("chat.file-transfer.chunk-size").intValue();
+        window = config.getInt("chat.file-transfer.window");
+        userCacheTtl = config.getDuration("chat.user-cache.ttl");
+        inviteTimeout = config.getDuration("chat.invite.timeout");
     }
 
     public Receive createReceive() {
         return receiveBuilder()
                 .match(PrintMessage.class, msg -> ioActor.tell(msg, self()))
+                .match(Reply.class, this::handleReply)
                 .match(Connect.class, this::handleConnectCommand)
                 .match(Disconnect.class, this::handleDisconnectCommand)
                 .match(UserCommand.class, this::handleUserCommand)
                 .match(TextData.class, this::handleTextData)
+                .match(DataBatch.class, this::handleDataBatch)
+                .match(MessagesSkipped.class, msg -> ioActor.tell(new PrintMessage(msg.getCount() + " messages skipped while busy!"), self()))
+                .match(DeliveryPressure.class, this::handleDeliveryPressure)
                 .match(FileData.class, this::handleFileData)
+                .match(FileChunk.class, this::handleFileChunk)
+                .match(FileOffer.class, this::handleFileOffer)
+                .match(FileWritten.class, this::handleFileWritten)
+                .match(FileWriteFailed.class, this::handleFileWriteFailed)
+                .match(UserOffline.class, msg -> forgetUser(msg.getUsername()))
+                .match(Terminated.class, msg -> forgetActor(msg.getActor()))
                 .match(CreateGroup.class, this::handleCreateGroup)
                 .match(LeaveGroup.class, this::handleLeaveGroup)
                 .match(GroupText.class, this::handleGroupText)
@@ -37,61 +79,152 @@ public class CommunicationActor extends AbstractActor {
                 .match(Inviter.class, this::handleInviter)
                 .match(Invited.class, this::handleInvited)
                 .match(InviteResponse.class, this::handleInviteResponse)
+                .match(AnswerInvite.class, this::handleAnswerInvite)
+                .match(InviteExpired.class, this::handleInviteExpired)
                 .match(GroupRemove.class, this::handleGroupRemove)
                 .match(CoAdminGroupCommand.class, this::handleCoAdminGroupCommand)
                 .match(MuteCommand.class, this::handleMuteCommand)
                 .build();
     }
 
+    // Send a request without blocking, its response comes back to this actor as a Reply
+    private void request(CompletionStage<Object> eventualResponse, String offlineMessage, Consumer<Object> onResponse) {
+        request(eventualResponse, () -> ioActor.tell(new PrintMessage(offlineMessage), self()), onResponse);
+    }
+
+    private void request(CompletionStage<Object> eventualResponse, Runnable onNoResponse, Consumer<Object> onResponse) {
+        long requestId = nextRequestId++;
+        pendingRequests.put(requestId, new PendingRequest(onResponse, onNoResponse));
+        CompletionStage<Reply> reply = eventualResponse.handle((response, e) -> new Reply(requestId, response));
+        Patterns.pipe(reply, context().dispatcher()).to(self());
+    }
+
+    // Ask manager without blocking
+    private void askManager(Object message, Consumer<Object> onResponse) {
+        request(Patterns.ask(manager, message, SERVER_TIMEOUT), SERVER_OFFLINE, onResponse);
+    }
+
+    // Match a response to its request and continue processing it
+    private void handleReply(Reply reply) {
+        PendingRequest pending = pendingRequests.remove(reply.getRequestId());
+        if (pending == null)
+            return;
+
+        // Server has not responded in time, failures of the continuation itself are not hidden as such
+        if (reply.getResponse() == null)
+            pending.getOnNoResponse().run();
+        else
+            pending.getOnResponse().accept(reply.getResponse());
+    }
+
+    // Answer of an invited user to an invite sent by this user
     private void handleInviteResponse(InviteResponse response) {
-        // If inviter exists and a response has been processes, send it to inviter and reset inviter
-        if (user != null && inviter != null) {
-            inviter.tell(response, self());
-            inviter = null;
+        SentInvite invite = sentInvites.remove(response.getInviteId());
+        if (invite == null) // Invite has expired, considered as declined
+            return;
+        getTimers().cancel(response.getInviteId());
+
+        if (response instanceof Confirm) { // Handle confirmation
+            // Notify manager to add target to group
+            manager.tell(new GroupAdd(invite.getGroupname(), invite.getSource(), invite.getTarget()), self());
+            // Notify target about addition
+            invite.getTargetActor().tell(new TextData(invite.getSource(), invite.getGroupname(), "Welcome to " + invite.getGroupname() + "!"), self());
         }
+        // Otherwise, no action is needed
+    }
+
+    // Answer of this user to a received invite, sent to its inviter
+    private void handleAnswerInvite(AnswerInvite answer) {
+        if (user == null) // User is disconnected or something went wrong
+            return;
+
+        ReceivedInvite invite = findReceivedInvite(answer.getMessage());
+        if (invite == null)
+            return;
+        receivedInvites.remove(invite.getInviteId());
+        getTimers().cancel(invite.getInviteId());
+        InviteResponse response = answer.isAccepted() ? new Confirm(invite.getInviteId()) : new Decline(invite.getInviteId());
+        invite.getInviter().tell(response, self());
+    }
+
+    // Pending invite to group, the only pending invite if no group is named
+    private ReceivedInvite findReceivedInvite(String groupname) {
+        if (groupname != null) {
+            ReceivedInvite invite = findReceivedInviteTo(groupname);
+            if (invite == null)
+                ioActor.tell(new PrintMessage("You have not been invited to " + groupname + "!"), self());
+            return invite;
+        }
+
+        if (receivedInvites.size() == 1)
+            return receivedInvites.values().iterator().next();
+        if (receivedInvites.isEmpty())
+            ioActor.tell(new PrintMessage("You have no pending invites!"), self());
+        else {
+            StringBuilder groups = new StringBuilder();
+            for (ReceivedInvite invite : receivedInvites.values())
+                groups.append(groups.length() == 0 ? "" : ", ").append(invite.getGroupname());
+            ioActor.tell(new PrintMessage("You have been invited to " + groups + ", answer with yes/no <groupname>!"), self());
+        }
+        return null;
+    }
+
+    private ReceivedInvite findReceivedInviteTo(String groupname) {
+        for (ReceivedInvite invite : receivedInvites.values())
+            if (invite.getGroupname().equals(groupname))
+                return invite;
+        return null;
+    }
+
+    // Invite sent or received has not been answered in time
+    private void handleInviteExpired(InviteExpired expired) {
+        sentInvites.remove(expired.getInviteId()); // User not responding in time is considered as decline
+        ReceivedInvite invite = receivedInvites.remove(expired.getInviteId());
+        if (invite != null)
+            ioActor.tell(new PrintMessage("Invite to " + invite.getGroupname() + " has expired!"), self());
+    }
+
+    // Drop every invite of the user who has disconnected
+    private void forgetInvites() {
+        for (String inviteId : sentInvites.keySet())
+            getTimers().cancel(inviteId);
+        for (String inviteId : receivedInvites.keySet())
+            getTimers().cancel(inviteId);
+        sentInvites.clear();
+        receivedInvites.clear();
     }
 
     private void handleConnectCommand(Connect cmd) {
         if (user != null) //User is already connected
             return;
-        // Ask manager for response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            // Parse manager response
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask manager for response, server offline is reported without retry hint
+        request(Patterns.ask(manager, cmd, SERVER_TIMEOUT), CONNECT_OFFLINE, response -> {
             // Handle success
             if (response instanceof Success) {
                 user = cmd.getUser();
                 // Print success message
                 ioActor.tell(new PrintMessage(user.getUsername() + " has connected successfully!"), self());
+                // Receive messages sent while offline
+                manager.tell(new FetchMailbox(user.getUsername()), self());
                 // Handle failure
             } else if (response instanceof Failure)
                 // Print failure message
                 ioActor.tell(new PrintMessage(cmd.getUser().getUsername() + " is in use!"), self());
-        } catch (
-                Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline!"), self());
-        }
-
+        });
     }
 
     private void handleDisconnectCommand(Disconnect cmd) {
         if (user == null) // User is disconnected or something went wrong //User is disconnected
             return;
         cmd.setUsername(user.getUsername());
-        // User wishes to disconnect, notify manager and wait for response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // User wishes to disconnect, notify manager
+        askManager(cmd, response -> {
             // Print success message
-            ioActor.tell(new PrintMessage(user.getUsername() + " has been disconnected successfully!"), self());
+            ioActor.tell(new PrintMessage(cmd.getUsername() + " has been disconnected successfully!"), self());
             user = null;
-
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+            forgetAllUsers();
+            forgetInvites();
+        });
     }
 
     private void handleUserCommand(UserCommand cmd) {
@@ -100,109 +233,306 @@ public class CommunicationActor extends AbstractActor {
 
         cmd.setSource(user.getUsername()); // Update command source username
 
-        // Ask manager and wait for response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Send directly to a recently looked up user
+        CachedUser cached = userCache.get(cmd.getTarget());
+        if (cached != null && !cached.isExpired()) {
+            sendToUser(cmd, cached.getCommunicationActor());
+            return;
+        }
+
+        // Ask manager for target user information
+        askManager(cmd, response -> {
             // Handle success
             if (response instanceof Success) {
                 // fetch user information from server response
                 User targetUser = ((Success) response).getUser();
-
-                if (cmd instanceof UserText)
-                    // Send text message to target actor
-                    targetUser.getCommunicationActor().tell(new TextData(cmd.getSource(), cmd.getTarget(), cmd.getData()), self());
-                else if (cmd instanceof UserFile) {
-                    // Data needed for sending file
-                    FileData file = buildFileData(cmd.getSource(), cmd.getTarget(), cmd.getData());
-                    if (file != null)
-                        // Send file to target actor
-                        targetUser.getCommunicationActor().tell(file, self());
+                if (targetUser == null) { // Message has been queued by the server
+                    ioActor.tell(new PrintMessage(cmd.getTarget() + " is offline! The message will be delivered once " + cmd.getTarget() + " connects!"), self());
+                    return;
                 }
+                cacheUser(targetUser);
+                sendToUser(cmd, targetUser.getCommunicationActor());
             } else {
                 // Handle failure
+                forgetUser(cmd.getTarget());
                 ioActor.tell(new PrintMessage(cmd.getTarget() + " does not exist!"), self());
             }
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
+    }
+
+    private void sendToUser(UserCommand cmd, ActorRef target) {
+        if (cmd instanceof UserText)
+            // Send text message to target actor
+            target.tell(new TextData(cmd.getSource(), cmd.getTarget(), cmd.getData()), self());
+        else if (cmd instanceof UserFile)
+            // Stream file to target actor
+            startTransfer(cmd.getSource(), cmd.getTarget(), cmd.getData(), target);
+    }
+
+    // Remember user's communication actor, forgotten once expired, reported offline by the server or terminated
+    private void cacheUser(User target) {
+        ActorRef actor = target.getCommunicationActor();
+        userCache.put(target.getUsername(), new CachedUser(actor, System.nanoTime() + userCacheTtl.toNanos()));
+        context().watch(actor);
+    }
+
+    private void forgetUser(String username) {
+        CachedUser cached = userCache.remove(username);
+        if (cached != null)
+            unwatchIfUnused(cached.getCommunicationActor());
+    }
+
+    // Forget every user served by a terminated communication actor
+    private void forgetActor(ActorRef actor) {
+        userCache.values().removeIf(cached -> cached.getCommunicationActor().equals(actor));
+    }
+
+    private void forgetAllUsers() {
+        for (CachedUser cached : userCache.values())
+            context().unwatch(cached.getCommunicationActor());
+        userCache.clear();
+    }
 
+    private void unwatchIfUnused(ActorRef actor) {
+        for (CachedUser cached : userCache.values()) {
+            if (cached.getCommunicationActor().equals(actor))
+                return;
+        }
+        context().unwatch(actor);
     }
 
-    private FileData buildFileData(String source, String target, String path) {
+    // Start streaming a file to a user, or uploading it to the server store when destination is null
+    private void startTransfer(String source, String target, String path, ActorRef destination) {
+        OutgoingTransfer transfer;
         try {
-            // Read and save file content in binary mode
-            byte[] fileContent = Files.readAllBytes(Paths.get(path));
-            // Fetch file name
-            String[] splitPath = path.split("/");
-            String filename = splitPath[splitPath.length - 1];
-            return new FileData(source, target, fileContent, filename);
+            transfer = new OutgoingTransfer(UUID.randomUUID().toString(), source, target, Paths.get(path), destination);
         } catch (Exception e) {
             // File does not exist
             ioActor.tell(new PrintMessage(path + " does not exist!"), self());
-            return null;
+            return;
+        }
+        outgoingTransfers.put(transfer.getTransferId(), transfer);
+        sendChunks(transfer);
+    }
+
+    // Send chunks until the window of unacknowledged chunks is full
+    private void sendChunks(OutgoingTransfer transfer) {
+        try {
+            FileChunk chunk;
+            while (transfer.getInFlight() < window && (chunk = transfer.nextChunk(chunkSize)) != null)
+                sendChunk(transfer, chunk);
+        } catch (IOException e) {
+            ioActor.tell(new PrintMessage("Error in reading " + transfer.getFilename() + "!"), self());
+            endTransfer(transfer);
+            return;
         }
+
+        if (!transfer.isComplete())
+            return;
+        endTransfer(transfer);
+
+        // File is in the server store, offer it to the group
+        BlobStored stored = transfer.getStored();
+        if (stored != null)
+            sendGroupData(new FileOffer(user.getUsername(), transfer.getTarget(), stored.getHash(),
+                    transfer.getFilename(), stored.getSize(), stored.getStore()));
+    }
+
+    private void sendChunk(OutgoingTransfer transfer, FileChunk chunk) {
+        Consumer<Object> onAcknowledge = response -> {
+            if (!outgoingTransfers.containsKey(transfer.getTransferId())) // Transfer has been aborted
+                return;
+            if (response instanceof Failure) {
+                ioActor.tell(new PrintMessage("Sending " + transfer.getFilename() + " to " + transfer.getTarget() + " failed!"), self());
+                endTransfer(transfer);
+                return;
+            }
+            if (response instanceof BlobStored) // Last chunk of an upload
+                transfer.setStored((BlobStored) response);
+            transfer.chunkAcknowledged();
+            sendChunks(transfer);
+        };
+        // Abort transfer if a chunk is not acknowledged in time
+        Runnable onNoResponse = () -> {
+            if (transfer.getDestination() != null) // Target may be gone, look it up again next time
+                forgetUser(transfer.getTarget());
+            if (outgoingTransfers.containsKey(transfer.getTransferId())) {
+                ioActor.tell(new PrintMessage("Sending " + transfer.getFilename() + " to " + transfer.getTarget() + " failed!"), self());
+                endTransfer(transfer);
+            }
+        };
+
+        if (transfer.getDestination() == null) // Uploaded chunks are acknowledged by the server store
+            request(Patterns.ask(blobStore, chunk, SERVER_TIMEOUT), onNoResponse, onAcknowledge);
+        else // User chunks are acknowledged by the target, through its file receiver on the large message connection
+            request(Patterns.ask(getContext().actorSelection(transfer.getDestination().path().child("files")), chunk,
+                    SERVER_TIMEOUT), onNoResponse, onAcknowledge);
+    }
+
+    private void endTransfer(OutgoingTransfer transfer) {
+        outgoingTransfers.remove(transfer.getTransferId());
+        transfer.close();
     }
 
     private void handleTextData(TextData data) {
         if (user == null) // User is disconnected or something went wrong
             return;
 
-        // Get current time
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss");
-        LocalDateTime now = LocalDateTime.now();
-        // Present data in desired format
-        String message = "[" + dtf.format(now) + "]"
-                + "[" + data.getTarget() + "][" + data.getSource() + "] "
-                + data.getData();
         // Print message by IO actor
-        ioActor.tell(new PrintMessage(message), self());
+        ioActor.tell(new PrintMessage(formatTextData(new StringBuilder(), data, timestamps.now()).toString()), self());
     }
 
-    private void handleFileData(FileData data) {
+    // Present data in desired format
+    private StringBuilder formatTextData(StringBuilder text, TextData data, String time) {
+        return text.append(time)
+                .append('[').append(data.getTarget()).append("][").append(data.getSource()).append("] ")
+                .append(data.getData());
+    }
+
+    // Mailbox is full or has room again, ask the server to pause or resume group deliveries
+    private void handleDeliveryPressure(DeliveryPressure pressure) {
+        if (user != null)
+            manager.tell(new PauseDelivery(user.getUsername(), pressure.isPaused()), self());
+    }
+
+    // Unpack group messages delivered together, texts are printed at once in their order
+    private void handleDataBatch(DataBatch batch) {
         if (user == null) // User is disconnected or something went wrong
             return;
 
-        // Get local path to save file
-        String path = Paths.get("").toAbsolutePath().toString() + "/" + data.getFilename();
-        try {
-            // Write file content
-            Files.write(Paths.get(path), data.getData());
-        } catch (Exception e) {
-            System.out.println("Error in saving file\n");
+        String now = timestamps.now();
+        StringBuilder texts = new StringBuilder();
+        for (Data data : batch.getData()) {
+            if (data instanceof TextData) {
+                if (texts.length() > 0)
+                    texts.append(System.lineSeparator());
+                formatTextData(texts, (TextData) data, now);
+            } else if (data instanceof FileOffer) {
+                printTexts(texts); // Keep texts sent before the file first
+                handleFileOffer((FileOffer) data);
+            }
         }
+        printTexts(texts);
+    }
+
+    private void printTexts(StringBuilder texts) {
+        if (texts.length() == 0)
+            return;
+        ioActor.tell(new PrintMessage(texts.toString()), self());
+        texts.setLength(0);
+    }
+
+    private void handleFileData(FileData data) {
+        if (user == null) // User is disconnected or something went wrong
+            return;
 
-        // Get current time
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss");
-        LocalDateTime now = LocalDateTime.now();
+        // Write whole file content as a single chunk
+        fileReceiver.tell(new WriteChunk(UUID.randomUUID().toString(), data.getSource(), data.getTarget(),
+                data.getFilename(), data.getData(), 0, data.getData().length, null), self());
+    }
+
+    private void handleFileWritten(FileWritten file) {
+        fileFetches.remove(file.getFileId()); // File may have been fetched from the server store
+
+        // Throughput from the first chunk to the last one
+        double seconds = Math.max(file.getNanos(), 1) / 1e9;
+        String throughput = String.format("%.2f MB/s", file.getSize() / 1e6 / seconds);
         // Present data in desired format
-        String message = "[" + dtf.format(now) + "]"
-                + "[" + data.getTarget() + "][" + data.getSource() + "] File received: " + path;
+        String message = timestamps.now()
+                + "[" + file.getTarget() + "][" + file.getSource() + "] File received: " + file.getPath()
+                + " (" + throughput + ")";
         // Print message by IO actor
         ioActor.tell(new PrintMessage(message), self());
     }
 
+    private void handleFileWriteFailed(FileWriteFailed failure) {
+        fileFetches.remove(failure.getFileId()); // Stop fetching the file if it came from the server store
+        ioActor.tell(new PrintMessage("Error in saving " + failure.getFilename() + "!"), self());
+    }
+
+    private void handleFileChunk(FileChunk chunk) {
+        if (user == null) // User is disconnected or something went wrong
+            return;
+
+        // Write chunk off this actor, the sender is acknowledged once the chunk is on disk. Files are kept apart by
+        // sender, so one user cannot write into the file of another
+        String fileId = sender().path().toSerializationFormat() + " " + chunk.getTransferId();
+        fileReceiver.tell(new WriteChunk(fileId, chunk.getSource(), chunk.getTarget(), chunk.getFilename(),
+                chunk.getData(), chunk.getOffset(), chunk.getSize(), sender()), self());
+    }
+
+    private void handleFileOffer(FileOffer offer) {
+        if (user == null) // User is disconnected or something went wrong
+            return;
+        if (offer.getSource().equals(user.getUsername())) // Sender already has the file
+            return;
+
+        FileFetch fetch = new FileFetch(offer);
+        if (offer.getSize() == 0) { // Nothing to fetch, only create the file
+            fileReceiver.tell(writeChunk(fetch, new byte[0], 0), self());
+            return;
+        }
+        fileFetches.put(fetch.getFetchId(), fetch);
+        fetchChunks(fetch);
+    }
+
+    private WriteChunk writeChunk(FileFetch fetch, byte[] data, long offset) {
+        FileOffer offer = fetch.getOffer();
+        return new WriteChunk(fetch.getFetchId(), offer.getSource(), offer.getTarget(), offer.getFilename(),
+                data, offset, offer.getSize(), null);
+    }
+
+    // Request chunks of an offered file until the window of pending requests is full, completion is reported by the file receiver
+    private void fetchChunks(FileFetch fetch) {
+        FetchChunk request;
+        while (fetch.getInFlight() < window && (request = fetch.nextRequest(chunkSize)) != null)
+            fetchChunk(fetch, request);
+    }
+
+    private void fetchChunk(FileFetch fetch, FetchChunk request) {
+        Consumer<Object> onChunk = response -> {
+            if (!fileFetches.containsKey(fetch.getFetchId())) // Fetch has been aborted
+                return;
+            if (!(response instanceof FileChunk)) { // File is not in the store anymore
+                ioActor.tell(new PrintMessage(fetch.getOffer().getFilename() + " is no longer available!"), self());
+                endFetch(fetch);
+                return;
+            }
+            FileChunk chunk = (FileChunk) response;
+            fetch.received();
+            fileReceiver.tell(writeChunk(fetch, chunk.getData(), chunk.getOffset()), self());
+            fetchChunks(fetch);
+        };
+        Runnable onNoResponse = () -> {
+            if (fileFetches.containsKey(fetch.getFetchId())) {
+                ioActor.tell(new PrintMessage("Receiving " + fetch.getOffer().getFilename() + " failed!"), self());
+                endFetch(fetch);
+            }
+        };
+        // Chunks are fetched through the file receiver, so they arrive on the large message connection
+        request(Patterns.ask(fileReceiver, new RelayFetch(fetch.getOffer().getStore(), request, SERVER_TIMEOUT),
+                SERVER_TIMEOUT), onNoResponse, onChunk);
+    }
+
+    private void endFetch(FileFetch fetch) {
+        fileFetches.remove(fetch.getFetchId());
+        fileReceiver.tell(new AbortFile(fetch.getFetchId()), self());
+    }
+
     private void handleCreateGroup(CreateGroup cmd) {
         if (user == null) // User is disconnected or something went wrong
             return;
 
         cmd.setCreator(user.getUsername());
-        // Wait for server response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask server to create the group
+        askManager(cmd, response -> {
             // Handle success
             if (response instanceof Success)
                 ioActor.tell(new PrintMessage(cmd.getGroupname() + " created successfully!"), self());
                 // Handle failure
             else if (response instanceof Failure)
                 ioActor.tell(new PrintMessage(cmd.getGroupname() + " already exists!"), self());
-
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
     }
 
     private void handleLeaveGroup(LeaveGroup cmd) {
@@ -210,10 +540,8 @@ public class CommunicationActor extends AbstractActor {
             return;
         cmd.setUsername(user.getUsername()); // Set command source username
 
-        // Wait for server response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask server to leave the group
+        askManager(cmd, response -> {
             // Handle failure
             if (response instanceof Failure) {
                 Failure failure = (Failure) response;
@@ -228,11 +556,7 @@ public class CommunicationActor extends AbstractActor {
                         break;
                 }
             }
-
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
     }
 
     private void handleGroupText(GroupText cmd) {
@@ -248,37 +572,41 @@ public class CommunicationActor extends AbstractActor {
         if (user == null) // User is disconnected or something went wrong
             return;
         cmd.setSource(user.getUsername()); // Update source username
-        // Data needed for sending file
-        FileData file = buildFileData(cmd.getSource(), cmd.getGroupname(), cmd.getFilename());
-        if (file != null)
-            sendGroupData(file);
+        // Verify the file may be sent before uploading it
+        askManager(cmd, response -> {
+            if (response instanceof Failure) // Handle failure
+                handleGroupDataFailure((Failure) response, cmd.getGroupname());
+            else // Upload file once to the server, which offers it to the group
+                startTransfer(cmd.getSource(), cmd.getGroupname(), cmd.getFilename(), null);
+        });
     }
 
     private void sendGroupData(Data cmd) {
-        // Send data to server for broadcast and wait for response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
-            if (response instanceof Failure) { // Handle failure
-                Failure failure = (Failure) response;
-                switch (failure.getReason()) {
-                    // group does not exist
-                    case GROUPNAME:
-                        ioActor.tell(new PrintMessage(cmd.getTarget() + " does not exist!"), self());
-                        break;
-                    // source username is not in group
-                    case SOURCE:
-                        ioActor.tell(new PrintMessage("You are not part of " + cmd.getTarget() + "!"), self());
-                        break;
-                    // source username is muted and therefore cannot send messages
-                    case MUTED:
-                        ioActor.tell(new PrintMessage("You are muted for " + failure.getData() + " milliseconds in " + cmd.getTarget() + "!"), self());
-                        break;
-                }
-            }
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
+        // Send data to server for broadcast
+        askManager(cmd, response -> {
+            if (response instanceof Failure) // Handle failure
+                handleGroupDataFailure((Failure) response, cmd.getTarget());
+        });
+    }
+
+    private void handleGroupDataFailure(Failure failure, String groupname) {
+        switch (failure.getReason()) {
+            // group does not exist
+            case GROUPNAME:
+                ioActor.tell(new PrintMessage(groupname + " does not exist!"), self());
+                break;
+            // source username is not in group
+            case SOURCE:
+                ioActor.tell(new PrintMessage("You are not part of " + groupname + "!"), self());
+                break;
+            // source username is muted and therefore cannot send messages
+            case MUTED:
+                ioActor.tell(new PrintMessage("You are muted for " + failure.getData() + " milliseconds in " + groupname + "!"), self());
+                break;
+            // source or group has sent too many messages, the rate limit lets one through after the given time
+            case RATE:
+                ioActor.tell(new PrintMessage("Too many messages to " + groupname + "! Try again in " + failure.getData() + " milliseconds!"), self());
+                break;
         }
     }
 
@@ -287,28 +615,17 @@ public class CommunicationActor extends AbstractActor {
             return;
         cmd.setSource(user.getUsername()); // Update source username
 
-        // Wait for user information from server
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask server for user information
+        askManager(cmd, response -> {
             if (response instanceof Success) { // Handle success
                 User targetUser = ((Success) response).getUser();
 
-                // Build invite message and send it to target user, wait for response
-                Invited invited = new Invited(cmd.getGroupname(), cmd.getSource(), cmd.getTarget());
-                Future<Object> targetEventualResponse = Patterns.ask(targetUser.getCommunicationActor(), invited, 20000);
-                try {
-                    Response targetResponse = (Response) Await.result(targetEventualResponse, Duration.apply(20000, TimeUnit.MILLISECONDS));
-                    if (targetResponse instanceof Confirm) { // Handle confirmation
-                        // Notify manager to add target to group
-                        manager.tell(new GroupAdd(cmd.getGroupname(), cmd.getSource(), cmd.getTarget()), self());
-                        // Notify target about addition
-                        targetUser.getCommunicationActor().tell(new TextData(cmd.getSource(), cmd.getGroupname(), "Welcome to " + cmd.getGroupname() + "!"), self());
-                    }
-                    // Otherwise, no action is needed
-
-                } catch (Exception e) {
-                } // User has not responded in time, considering this as decline
+                // Build invite message and send it to target user, its answer arrives as an invite response
+                String inviteId = UUID.randomUUID().toString();
+                sentInvites.put(inviteId, new SentInvite(cmd.getGroupname(), cmd.getSource(), cmd.getTarget(), targetUser.getCommunicationActor()));
+                targetUser.getCommunicationActor().tell(new Invited(cmd.getGroupname(), cmd.getSource(), cmd.getTarget(), inviteId), self());
+                // User not responding in time is considered as decline, no message is printed
+                getTimers().startSingleTimer(inviteId, new InviteExpired(inviteId), inviteTimeout);
 
             } else if (response instanceof Failure) { // Handle failure from server
                 Failure failure = (Failure) response;
@@ -331,16 +648,23 @@ public class CommunicationActor extends AbstractActor {
                         break;
                 }
             }
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
     }
 
-    private void handleInvited(GroupInvite cmd) {
-        inviter = sender();
+    private void handleInvited(Invited cmd) {
+        if (user == null) // User is disconnected or something went wrong
+            return;
+
+        // A new invite to the same group replaces the previous one, which is left to expire at the inviter
+        ReceivedInvite previous = findReceivedInviteTo(cmd.getGroupname());
+        if (previous != null) {
+            receivedInvites.remove(previous.getInviteId());
+            getTimers().cancel(previous.getInviteId());
+        }
+        receivedInvites.put(cmd.getInviteId(), new ReceivedInvite(cmd.getInviteId(), cmd.getGroupname(), sender()));
+        getTimers().startSingleTimer(cmd.getInviteId(), new InviteExpired(cmd.getInviteId()), inviteTimeout);
         // Send invite message for printing to user
-        handleTextData(new TextData(cmd.getSource(), cmd.getGroupname(), "You have been invited to " + cmd.getGroupname() + ", Accept?"));
+        handleTextData(new TextData(cmd.getSource(), cmd.getGroupname(), "You have been invited to " + cmd.getGroupname() + ", Accept? (yes/no " + cmd.getGroupname() + ")"));
     }
 
     private void handleGroupRemove(GroupRemove cmd) {
@@ -348,10 +672,8 @@ public class CommunicationActor extends AbstractActor {
             return;
         cmd.setSource(user.getUsername()); // Update source username
 
-        // Wait for server response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask server to perform the operation
+        askManager(cmd, response -> {
             if (response instanceof Success) { // Handle success
                 // Fetch user information from server response and notify him about removal
                 User targetUser = ((Success) response).getUser();
@@ -360,10 +682,7 @@ public class CommunicationActor extends AbstractActor {
                 Failure failure = (Failure) response;
                 handleFailure(failure, cmd.getGroupname(), cmd.getTarget());
             }
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
     }
 
     private void handleCoAdminGroupCommand(CoAdminGroupCommand cmd) {
@@ -371,10 +690,8 @@ public class CommunicationActor extends AbstractActor {
             return;
         cmd.setSource(user.getUsername()); // Update source username
 
-        // Wait for server response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask server to perform the operation
+        askManager(cmd, response -> {
             if (response instanceof Success) { // Handle success
                 User targetUser = ((Success) response).getUser();
                 if (cmd instanceof CoAdminAdd) // Notify target about promotion to co admin
@@ -386,10 +703,7 @@ public class CommunicationActor extends AbstractActor {
                 Failure failure = (Failure) response;
                 handleFailure(failure, cmd.getGroupname(), cmd.getTarget());
             }
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
     }
 
     private void handleMuteCommand(MuteCommand cmd) {
@@ -397,10 +711,8 @@ public class CommunicationActor extends AbstractActor {
             return;
         cmd.setSource(user.getUsername()); // Update source username
 
-        // Wait for server response
-        Future<Object> eventualResponse = Patterns.ask(manager, cmd, 1000);
-        try {
-            Response response = (Response) Await.result(eventualResponse, Duration.apply(1000, TimeUnit.MILLISECONDS));
+        // Ask server to perform the operation
+        askManager(cmd, response -> {
             if (response instanceof Success) { // Handle success
                 User targetUser = ((Success) response).getUser();
                 if (cmd instanceof MuteMember) // Notify target about mute
@@ -412,11 +724,7 @@ public class CommunicationActor extends AbstractActor {
                 Failure failure = (Failure) response;
                 handleFailure(failure, cmd.getGroupname(), cmd.getTarget());
             }
-
-        } catch (Exception e) {
-            // Server has not responded
-            ioActor.tell(new PrintMessage("server is offline! try again later!"), self());
-        }
+        });
     }
 
     private void handleFailure(Failure failure, String groupname, String target) {
@@ -444,7 +752,137 @@ public class CommunicationActor extends AbstractActor {
 
     public void preStart() {
         // Connect to server manager, this is the first step once the Actor is added to the system
-        manager = getContext().actorSelection(
-                "akka.tcp://ChatSystem@127.0.0.1:3553/user/Manager");
+        String server = context().system().settings().config().getString("chat.server");
+        manager = getContext().actorSelection(server + "/user/Manager");
+        blobStore = getContext().actorSelection(server + "/user/Manager/blobs");
+        // Received files are written on a dedicated thread
+        fileReceiver = getContext().actorOf(
+                Props.create(FileReceiver.class).withDispatcher("file-receiver-dispatcher"), "files");
+    }
+}
+
+// Response of a request, piped back to the communication actor with the request correlation id
+class Reply {
+    private long requestId;
+    private Object response; // null if no response arrived in time
+
+    public Reply(long requestId, Object response) {
+        this.requestId = requestId;
+        this.response = response;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public Object getResponse() {
+        return response;
+    }
+}
+
+// Request waiting for its reply
+class PendingRequest {
+    private Consumer<Object> onResponse; // Continuation run on the actor once the response arrives
+    private Runnable onNoResponse; // Run on the actor if no response arrived in time
+
+    public PendingRequest(Consumer<Object> onResponse, Runnable onNoResponse) {
+        this.onResponse = onResponse;
+        this.onNoResponse = onNoResponse;
+    }
+
+    public Consumer<Object> getOnResponse() {
+        return onResponse;
+    }
+
+    public Runnable getOnNoResponse() {
+        return onNoResponse;
+    }
+}
+
+// Invite sent by this user, waiting for the answer of the invited user
+class SentInvite {
+    private String groupname;
+    private String source;
+    private String target;
+    private ActorRef targetActor; // Communication actor of the invited user
+
+    public SentInvite(String groupname, String source, String target, ActorRef targetActor) {
+        this.groupname = groupname;
+        this.source = source;
+        this.target = target;
+        this.targetActor = targetActor;
+    }
+
+    public String getGroupname() {
+        return groupname;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public ActorRef getTargetActor() {
+        return targetActor;
+    }
+}
+
+// Invite received by this user, waiting for the user's answer
+class ReceivedInvite {
+    private String inviteId;
+    private String groupname;
+    private ActorRef inviter; // Communication actor of the inviting user
+
+    public ReceivedInvite(String inviteId, String groupname, ActorRef inviter) {
+        this.inviteId = inviteId;
+        this.groupname = groupname;
+        this.inviter = inviter;
+    }
+
+    public String getInviteId() {
+        return inviteId;
+    }
+
+    public String getGroupname() {
+        return groupname;
+    }
+
+    public ActorRef getInviter() {
+        return inviter;
+    }
+}
+
+// Timer of an invite sent or received, once it has waited too long for an answer
+class InviteExpired {
+    private String inviteId;
+
+    public InviteExpired(String inviteId) {
+        this.inviteId = inviteId;
+    }
+
+    public String getInviteId() {
+        return inviteId;
+    }
+}
+
+// Communication actor of a looked up user
+class CachedUser {
+    private ActorRef communicationActor;
+    private long expires; // System.nanoTime after which the server is asked again
+
+    public CachedUser(ActorRef communicationActor, long expires) {
+        this.communicationActor = communicationActor;
+        this.expires = expires;
+    }
+
+    public ActorRef getCommunicationActor() {
+        return communicationActor;
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - expires > 0;
     }
 }
@@ -0,0 +1,38 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+// Writes the messages printed to the user through a buffer, the IO actor flushes it once it fills or on a timer
+public class ConsoleRenderer {
+    private Writer out;
+    private int flushSize; // Characters buffered before they are written out at once
+    private int pending = 0; // Characters written since the last flush
+
+    public ConsoleRenderer(OutputStream out, int flushSize) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out), flushSize);
+        this.flushSize = flushSize;
+    }
+
+    // Buffer message as a line, returns whether the buffer is full and should be flushed
+    public boolean println(String message) {
+        try {
+            out.write(message);
+            out.write(System.lineSeparator());
+        } catch (IOException e) {
+            return false; // Console is gone, nothing left to show
+        }
+        pending += message.length() + 1;
+        return pending >= flushSize;
+    }
+
+    public void flush() {
+        pending = 0;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // Console is gone, nothing left to show
+        }
+    }
+}
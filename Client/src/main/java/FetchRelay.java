@@ -0,0 +1,65 @@
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+
+import java.time.Duration;
+
+// Fetches a single chunk from the server store for a requester. The store replies to this actor, a child of the
+// file receiver, so that the chunk travels on the large message connection, then the reply is passed on
+public class FetchRelay extends AbstractActorWithTimers {
+    private ActorRef store;
+    private FetchChunk request;
+    private ActorRef requester; // Waits for the store reply
+    private Duration timeout; // Relay stops if the store does not reply in time
+
+    public FetchRelay(ActorRef store, FetchChunk request, ActorRef requester, Duration timeout) {
+        this.store = store;
+        this.request = request;
+        this.requester = requester;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void preStart() {
+        store.tell(request, self());
+        getTimers().startSingleTimer("timeout", new RelayTimeout(), timeout);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(RelayTimeout.class, msg -> context().stop(self()))
+                .matchAny(reply -> {
+                    requester.tell(reply, self());
+                    context().stop(self());
+                })
+                .build();
+    }
+}
+
+// The store did not reply to a relayed fetch in time
+class RelayTimeout {
+}
+
+// Fetch a chunk from the server store through a relay, replied to with the store reply
+class RelayFetch {
+    private ActorRef store;
+    private FetchChunk request;
+    private Duration timeout; // Time the requester waits for the reply
+
+    public RelayFetch(ActorRef store, FetchChunk request, Duration timeout) {
+        this.store = store;
+        this.request = request;
+        this.timeout = timeout;
+    }
+
+    public ActorRef getStore() {
+        return store;
+    }
+
+    public FetchChunk getRequest() {
+        return request;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,210 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+// Writes received files to disk on its own dispatcher and reports each completed file to its parent. File content
+// sent to this user is addressed to this actor, so that it arrives on the large message connection
+public class FileReceiver extends AbstractActor {
+    private Path downloadDirectory = Paths.get("").toAbsolutePath().normalize(); // Received files are saved here
+    // Files being written, by file id
+    private HashMap<String, IncomingTransfer> files = new HashMap<>();
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(WriteChunk.class, this::handleWriteChunk)
+                .match(AbortFile.class, msg -> abort(msg.getFileId()))
+                // Sent by other users, the communication actor checks them and hands them back to be written
+                .match(FileChunk.class, msg -> context().parent().forward(msg, context()))
+                .match(FileData.class, msg -> context().parent().forward(msg, context()))
+                .match(RelayFetch.class, msg -> context().actorOf(Props.create(FetchRelay.class, msg.getStore(),
+                        msg.getRequest(), sender(), msg.getTimeout())))
+                .build();
+    }
+
+    @Override
+    public void postStop() {
+        for (IncomingTransfer file : files.values())
+            file.close();
+    }
+
+    private void handleWriteChunk(WriteChunk chunk) {
+        IncomingTransfer file = files.get(chunk.getFileId());
+        try {
+            if (file == null) { // First chunk of the file
+                file = new IncomingTransfer(downloadPath(chunk.getFilename()), chunk.getSize());
+                files.put(chunk.getFileId(), file);
+            }
+            // Write chunk content
+            file.write(chunk.getData(), chunk.getOffset());
+        } catch (Exception e) {
+            abort(chunk.getFileId());
+            if (chunk.getAckTo() != null)
+                chunk.getAckTo().tell(new Failure(), self());
+            context().parent().tell(new FileWriteFailed(chunk.getFileId(), chunk.getFilename()), self());
+            return;
+        }
+
+        // Acknowledge chunk once it is on disk
+        if (chunk.getAckTo() != null)
+            chunk.getAckTo().tell(new Success(), self());
+
+        if (!file.isComplete())
+            return;
+        files.remove(chunk.getFileId());
+        file.close();
+        context().parent().tell(new FileWritten(chunk.getFileId(), chunk.getSource(), chunk.getTarget(),
+                file.getPath(), chunk.getSize(), file.getElapsed()), self());
+    }
+
+    // Path of a received file, the name comes from another user so only its last part is kept, within the directory
+    private Path downloadPath(String filename) throws IOException {
+        Path name = filename == null ? null : Paths.get(filename).getFileName();
+        if (name == null || name.toString().isEmpty() || name.toString().equals(".") || name.toString().equals(".."))
+            throw new IOException("invalid file name " + filename);
+        Path path = downloadDirectory.resolve(name).normalize();
+        if (!path.startsWith(downloadDirectory) || path.equals(downloadDirectory))
+            throw new IOException("file name " + filename + " leaves the download directory");
+        return path;
+    }
+
+    private void abort(String fileId) {
+        IncomingTransfer file = files.remove(fileId);
+        if (file != null)
+            file.close();
+    }
+}
+
+// Received bytes of a file, handed to the file receiver
+class WriteChunk {
+    private String fileId;
+    private String source;
+    private String target;
+    private String filename;
+    private byte[] data;
+    private long offset; // Position of the chunk in the file
+    private long size; // Size of the whole file
+    private ActorRef ackTo; // Acknowledged once written, null if nobody waits for it
+
+    public WriteChunk(String fileId, String source, String target, String filename, byte[] data, long offset, long size, ActorRef ackTo) {
+        this.fileId = fileId;
+        this.source = source;
+        this.target = target;
+        this.filename = filename;
+        this.data = data;
+        this.offset = offset;
+        this.size = size;
+        this.ackTo = ackTo;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public ActorRef getAckTo() {
+        return ackTo;
+    }
+}
+
+// Drop a partially written file
+class AbortFile {
+    private String fileId;
+
+    public AbortFile(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+}
+
+// Sent by the file receiver once a whole file is on disk
+class FileWritten {
+    private String fileId;
+    private String source;
+    private String target;
+    private Path path;
+    private long size;
+    private long nanos; // Time from the first chunk to the last one
+
+    public FileWritten(String fileId, String source, String target, Path path, long size, long nanos) {
+        this.fileId = fileId;
+        this.source = source;
+        this.target = target;
+        this.path = path;
+        this.size = size;
+        this.nanos = nanos;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
+
+// Sent by the file receiver when a file could not be written
+class FileWriteFailed {
+    private String fileId;
+    private String filename;
+
+    public FileWriteFailed(String fileId, String filename) {
+        this.fileId = fileId;
+        this.filename = filename;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+}
@@ -0,0 +1,181 @@
+import akka.actor.ActorRef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+// File being streamed to a user or a group, read chunk by chunk
+class OutgoingTransfer {
+    private String transferId;
+    private String source;
+    private String target;
+    private String filename;
+    private ActorRef destination; // Target communication actor, null when sending to a group through the server
+    private FileChannel channel;
+    private long size; // Size of the file
+    private long position = 0; // Position of the next chunk
+    private boolean started = false; // At least one chunk has been read
+    private int inFlight = 0; // Chunks sent and not acknowledged yet
+    private BlobStored stored = null; // Result of an upload to the server store
+
+    public OutgoingTransfer(String transferId, String source, String target, Path path, ActorRef destination) throws IOException {
+        this.transferId = transferId;
+        this.source = source;
+        this.target = target;
+        this.filename = path.getFileName().toString();
+        this.destination = destination;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public ActorRef getDestination() {
+        return destination;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public BlobStored getStored() {
+        return stored;
+    }
+
+    public void setStored(BlobStored stored) {
+        this.stored = stored;
+    }
+
+    // Read the next chunk of the file, null once the whole file has been read
+    public FileChunk nextChunk(int chunkSize) throws IOException {
+        if (started && position >= size)
+            return null;
+        started = true;
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, size - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException(filename + " has been truncated");
+        }
+        FileChunk chunk = new FileChunk(source, target, buffer.array(), transferId, filename, position, size);
+        position += buffer.capacity();
+        inFlight++;
+        return chunk;
+    }
+
+    public void chunkAcknowledged() {
+        inFlight--;
+    }
+
+    // Every chunk has been sent and acknowledged
+    public boolean isComplete() {
+        return started && position >= size && inFlight == 0;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
+
+// File being received chunk by chunk
+class IncomingTransfer {
+    private Path path; // Local path of the received file
+    private FileChannel channel;
+    private long size; // Size of the whole file
+    private ByteRanges written = new ByteRanges(); // Parts written so far
+    private long started = System.nanoTime();
+
+    public IncomingTransfer(Path path, long size) throws IOException {
+        this.path = path;
+        this.size = size;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Write chunk at its position, chunks may be written in any order
+    public void write(byte[] data, long offset) throws IOException {
+        if (offset < 0 || offset > size - data.length)
+            throw new IOException("chunk outside of the file");
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            channel.write(buffer, offset + buffer.position());
+        written.add(offset, offset + data.length);
+    }
+
+    public boolean isComplete() {
+        return written.covers(size);
+    }
+
+    // Nanoseconds since the file has been opened
+    public long getElapsed() {
+        return System.nanoTime() - started;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
+
+// Group file offered by the server store, fetched chunk by chunk
+class FileFetch {
+    private String fetchId = UUID.randomUUID().toString();
+    private FileOffer offer;
+    private long nextOffset = 0; // Position of the next chunk to request
+    private int inFlight = 0; // Chunks requested and not received yet
+
+    public FileFetch(FileOffer offer) {
+        this.offer = offer;
+    }
+
+    public String getFetchId() {
+        return fetchId;
+    }
+
+    public FileOffer getOffer() {
+        return offer;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    // Request for the next chunk, null once every chunk has been requested
+    public FetchChunk nextRequest(int chunkSize) {
+        if (nextOffset >= offer.getSize())
+            return null;
+        int length = (int) Math.min(chunkSize, offer.getSize() - nextOffset);
+        FetchChunk request = new FetchChunk(offer.getData(), nextOffset, length);
+        nextOffset += length;
+        inFlight++;
+        return request;
+    }
+
+    public void received() {
+        inFlight--;
+    }
+}
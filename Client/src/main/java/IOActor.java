@@ -1,89 +1,138 @@
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import com.typesafe.config.Config;
 
-import java.util.Arrays;
+import java.time.Duration;
 
-public class IOActor extends AbstractActor {
+public class IOActor extends AbstractActorWithTimers {
     ActorRef communicationActor;
+    private String communicationActorName; // Name of the communication actor in the actor system
+    private CommandLine tokens = new CommandLine(); // Tokens of the line being processed
+    private ConsoleRenderer console; // Buffers the printed messages, created on the first one
+    private Duration flushDelay; // Longest time a printed message may wait in the buffer
+
+    public IOActor() {
+        this("CommunicationActor");
+    }
+
+    // Used when several users share the actor system
+    public IOActor(String communicationActorName) {
+        this.communicationActorName = communicationActorName;
+    }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(ProcessMessage.class, msg -> buildCommand(msg.getMessage()))
-                .match(PrintMessage.class, msg -> System.out.println(msg.getMessage()))
+                .match(ProcessBatch.class, this::buildCommands)
+                .match(PrintMessage.class, msg -> print(msg.getMessage()))
+                .match(FlushConsole.class, msg -> flushConsole())
                 .build();
     }
 
     public void preStart() {
         // Create communication actor to communicate with the server
-        communicationActor = getContext().getSystem().actorOf(Props.create(CommunicationActor.class, self()), "CommunicationActor");
+        communicationActor = getContext().getSystem().actorOf(Props.create(CommunicationActor.class, self())
+                .withMailbox("communication-mailbox"), communicationActorName);
+    }
+
+    @Override
+    public void postStop() {
+        if (console != null)
+            console.flush();
     }
 
-    private void buildCommand(String message) {
+    // Show message to the user, messages printed together are written out at once
+    protected void print(String message) {
+        if (console == null) {
+            Config config = context().system().settings().config().getConfig("chat.console");
+            console = new ConsoleRenderer(System.out, config.getBytes("buffer-size").intValue());
+            flushDelay = config.getDuration("flush-delay");
+        }
+        if (console.println(message))
+            flushConsole();
+        else if (!getTimers().isTimerActive("flush"))
+            getTimers().startSingleTimer("flush", new FlushConsole(), flushDelay);
+    }
+
+    private void flushConsole() {
+        getTimers().cancel("flush");
+        console.flush();
+    }
+
+    // Process every line of a batch, then let the reader send the next one
+    private void buildCommands(ProcessBatch batch) {
+        for (String line : batch.getLines())
+            buildCommand(line);
+        sender().tell(batch, self());
+    }
+
+    protected void buildCommand(String line) {
         // Split message by spaces to match the input
-        String[] splitMessage = message.split(" ");
-        // Process user response to a group invite
-        if (splitMessage.length == 1)
-            switch (splitMessage[0].toLowerCase()) {
-                case "yes":
-                    // Build confirm message
-                    communicationActor.tell(new Confirm(), self());
-                    break;
-                case "no":
-                    // Build decline message
-                    communicationActor.tell(new Decline(), self());
-                    break;
+        CommandLine message = tokens.parse(line);
+        if (message.count() == 0)
+            return;
+        // Process user response to a group invite, naming its group when several invites are pending
+        if (message.count() <= 2) {
+            String groupname = message.count() == 2 ? message.token(1) : null;
+            if (message.is(0, "yes", true)) {
+                communicationActor.tell(new AnswerInvite(groupname, true), self());
+                return;
+            }
+            if (message.is(0, "no", true)) {
+                communicationActor.tell(new AnswerInvite(groupname, false), self());
+                return;
             }
+        }
 
         // Other short messages are invalid
-        if (splitMessage.length < 2)
+        if (message.count() < 2)
             return;
 
         // Other user operations
-        switch (splitMessage[0]) {
+        switch (message.keyword(0)) {
             case "/user":
-                buildUserCommand(splitMessage);
+                buildUserCommand(message);
                 break;
             case "/group":
-                buildGroupCommand(splitMessage);
+                buildGroupCommand(message);
                 break;
         }
     }
 
     // Build user operations commands
-    private void buildUserCommand(String[] message) {
+    private void buildUserCommand(CommandLine message) {
         Command cmd = null;
-        switch (message[1]) {
+        switch (message.keyword(1)) {
             case "connect":
-                if (message.length != 3)
+                if (message.count() != 3)
                     return;
                 // Build connect command for user
-                User user = new User(message[2], communicationActor);
+                User user = new User(message.token(2), communicationActor);
                 cmd = new Connect(user);
                 break;
 
             case "disconnect":
-                if (message.length != 2)
+                if (message.count() != 2)
                     return;
                 // Build disconnect command for user
                 cmd = new Disconnect(null);
                 break;
 
             case "text":
-                if (message.length < 4)
+                if (message.count() < 4)
                     return;
                 // Pass entire text including spaces
-                String[] splitText = Arrays.copyOfRange(message, 3, message.length);
-                String text = String.join(" ", splitText);
+                String text = message.rest(3);
                 // Build text command for user
-                cmd = new UserText(null, message[2], text);
+                cmd = new UserText(null, message.token(2), text);
                 break;
             case "file":
-                if (message.length != 4)
+                if (message.count() != 4)
                     return;
                 // Build file command for user
-                cmd = new UserFile(null, message[2], message[3]);
+                cmd = new UserFile(null, message.token(2), message.token(3));
                 break;
         }
 
@@ -93,92 +142,91 @@ public class IOActor extends AbstractActor {
     }
 
     // Build group operations commands
-    private void buildGroupCommand(String[] message) {
+    private void buildGroupCommand(CommandLine message) {
         Command cmd = null;
-        switch (message[1]) {
+        switch (message.keyword(1)) {
             case "create":
-                if (message.length != 3)
+                if (message.count() != 3)
                     return;
                 // Build group creation command
-                cmd = new CreateGroup(message[2], null);
+                cmd = new CreateGroup(message.token(2), null);
                 break;
 
             case "leave":
-                if (message.length != 3)
+                if (message.count() != 3)
                     return;
                 // Build group leave command
-                cmd = new LeaveGroup(message[2], null);
+                cmd = new LeaveGroup(message.token(2), null);
                 break;
 
             case "send":
-                if (message.length < 5)
+                if (message.count() < 5)
                     return;
-                switch (message[2]) {
+                switch (message.keyword(2)) {
                     case "text":
                         // Pass entire text including spaces
-                        String[] splitText = Arrays.copyOfRange(message, 4, message.length);
-                        String text = String.join(" ", splitText);
+                        String text = message.rest(4);
                         // Build group text command
-                        cmd = new GroupText(message[3], null, text);
+                        cmd = new GroupText(message.token(3), null, text);
                         break;
                     case "file":
-                        if (message.length != 5)
+                        if (message.count() != 5)
                             return;
                         // Build group file command
-                        cmd = new GroupFile(message[3], null, message[4]);
+                        cmd = new GroupFile(message.token(3), null, message.token(4));
                         break;
                 }
                 break;
 
             //User operations inside group
             case "user":
-                if (message.length < 5)
+                if (message.count() < 5)
                     return;
-                switch (message[2]) {
+                switch (message.keyword(2)) {
                     case "invite":
-                        if (message.length != 5)
+                        if (message.count() != 5)
                             return;
                         // Build group invite command
-                        cmd = new Inviter(message[3], null, message[4]);
+                        cmd = new Inviter(message.token(3), null, message.token(4));
                         break;
                     case "remove":
-                        if (message.length != 5)
+                        if (message.count() != 5)
                             return;
                         // Build group remove command
-                        cmd = new GroupRemove(message[3], null, message[4]);
+                        cmd = new GroupRemove(message.token(3), null, message.token(4));
                         break;
                     case "mute":
-                        if (message.length != 6)
+                        if (message.count() != 6)
                             return;
                         try {
                             // Parse duration to Long
-                            Long duration = Long.parseLong(message[5]);
+                            Long duration = message.parseLong(5);
                             // Build group mute command
-                            cmd = new MuteMember(message[3], null, message[4], duration);
+                            cmd = new MuteMember(message.token(3), null, message.token(4), duration);
                         } catch (Exception e) {
-                            System.out.println("<timeinseconds> must be of type long!");
+                            print("<timeinseconds> must be of type long!");
                         }
                         break;
                     case "unmute":
-                        if (message.length != 5)
+                        if (message.count() != 5)
                             return;
                         // Build group unmute command
-                        cmd = new UnmuteMember(message[3], null, message[4]);
+                        cmd = new UnmuteMember(message.token(3), null, message.token(4));
                         break;
                 }
                 break;
 
             case "coadmin":
-                if (message.length != 5)
+                if (message.count() != 5)
                     return;
-                switch (message[2]) {
+                switch (message.keyword(2)) {
                     case "add":
                         // Build group add coadmin command
-                        cmd = new CoAdminAdd(message[3], null, message[4]);
+                        cmd = new CoAdminAdd(message.token(3), null, message.token(4));
                         break;
                     case "remove":
                         // Build group remove coadmin command
-                        cmd = new CoAdminRemove(message[3], null, message[4]);
+                        cmd = new CoAdminRemove(message.token(3), null, message.token(4));
                         break;
                 }
                 break;
@@ -189,3 +237,20 @@ public class IOActor extends AbstractActor {
             communicationActor.tell(cmd, self());
     }
 }
+
+// Lines read together from the input, sent back to the reader once processed
+class ProcessBatch {
+    private String[] lines;
+
+    public ProcessBatch(String[] lines) {
+        this.lines = lines;
+    }
+
+    public String[] getLines() {
+        return lines;
+    }
+}
+
+// Timer of the IO actor writing out the buffered messages
+class FlushConsole {
+}
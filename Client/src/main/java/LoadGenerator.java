@@ -0,0 +1,126 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Headless client simulating many users who run the same scenario against a server, reports throughput and
+// delivery latency once every user is done
+public class LoadGenerator {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: LoadGenerator <scenario file> <users> [group size]");
+            return;
+        }
+        List<String> lines = Files.readAllLines(Paths.get(args[0]));
+        int users = Integer.parseInt(args[1]);
+        int groupSize = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        // Names of this run, groups of a previous run may still be stored by the server
+        String run = Long.toString(System.currentTimeMillis() % 100000000, 36);
+        LoadScenario scenario = new LoadScenario(lines, users, groupSize, run);
+
+        // A single actor system shares its server connection between the users
+        ActorSystem system = ActorSystem.create("LoadGenerator");
+        LoadStats stats = new LoadStats();
+        ActorRef coordinator = system.actorOf(Props.create(LoadCoordinator.class, users, stats), "coordinator");
+        for (int i = 0; i < users; i++)
+            system.actorOf(Props.create(SimulatedUser.class, scenario, i, coordinator, stats), "user-" + i);
+    }
+}
+
+// Releases the simulated users from a barrier once all of them have reached it, reports once all are done
+class LoadCoordinator extends AbstractActor {
+    private int users;
+    private LoadStats stats;
+    private ArrayList<ActorRef> waiting = new ArrayList<>(); // Users at the current barrier
+    private int done = 0; // Users who have run their whole scenario
+
+    public LoadCoordinator(int users, LoadStats stats) {
+        this.users = users;
+        this.stats = stats;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(BarrierReached.class, msg -> handleBarrierReached())
+                .match(ScenarioDone.class, msg -> handleScenarioDone())
+                .build();
+    }
+
+    private void handleBarrierReached() {
+        waiting.add(sender());
+        if (waiting.size() < users)
+            return;
+        for (ActorRef user : waiting)
+            user.tell(new BarrierReleased(), self());
+        waiting.clear();
+    }
+
+    private void handleScenarioDone() {
+        if (++done < users)
+            return;
+        System.out.print(stats.report(users));
+        context().system().terminate();
+    }
+}
+
+// Scenario lines and the names of the users and groups of a run. Users are split into groups of the same size,
+// the first user of a group is its admin.
+class LoadScenario {
+    private List<String> lines;
+    private int users;
+    private int groupSize;
+    private String run; // Part of every name of the run
+
+    public LoadScenario(List<String> lines, int users, int groupSize, String run) {
+        this.lines = lines;
+        this.users = users;
+        this.groupSize = groupSize;
+        this.run = run;
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    public String username(int user) {
+        return "u" + run + "-" + user;
+    }
+
+    public String groupname(int user) {
+        return "g" + run + "-" + user / groupSize;
+    }
+
+    public int adminOf(int user) {
+        return user / groupSize * groupSize;
+    }
+
+    public boolean isAdmin(int user) {
+        return adminOf(user) == user;
+    }
+
+    // Users of the group of user, including the admin
+    public List<Integer> membersOf(int user) {
+        List<Integer> members = new ArrayList<>();
+        for (int member = adminOf(user); member < Math.min(adminOf(user) + groupSize, users); member++)
+            members.add(member);
+        return members;
+    }
+}
+
+// Sent by a simulated user waiting at a barrier line
+class BarrierReached {
+}
+
+// Sent to the simulated users once every user has reached the barrier
+class BarrierReleased {
+}
+
+// Sent by a simulated user who has run its whole scenario
+class ScenarioDone {
+}
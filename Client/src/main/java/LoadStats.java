@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters and delivery latencies of a load generator run, updated by every simulated user
+public class LoadStats {
+    private AtomicLong sent = new AtomicLong(); // Stamped messages sent
+    private AtomicLong delivered = new AtomicLong(); // Stamped messages received, once per recipient
+    private AtomicLong timeouts = new AtomicLong(); // Requests the server has not answered in time
+    private AtomicLong firstSent = new AtomicLong(Long.MAX_VALUE); // System.nanoTime of the first stamped message
+    private AtomicLong lastSent = new AtomicLong(); // System.nanoTime of the last stamped message
+    private AtomicLong lastDelivered = new AtomicLong(); // System.nanoTime of the last delivery
+    private LatencyHistogram latencies = new LatencyHistogram();
+
+    // Stamp of a message sent now, received stamps give the delivery latency
+    public long stamp() {
+        long now = System.nanoTime();
+        sent.incrementAndGet();
+        firstSent.accumulateAndGet(now, Math::min);
+        lastSent.accumulateAndGet(now, Math::max);
+        return now;
+    }
+
+    public void delivered(long stamp) {
+        long now = System.nanoTime();
+        delivered.incrementAndGet();
+        lastDelivered.accumulateAndGet(now, Math::max);
+        latencies.record((now - stamp) / 1000);
+    }
+
+    public void timeout() {
+        timeouts.incrementAndGet();
+    }
+
+    public String report(int users) {
+        // Rates over the time from the first message sent to the last one sent, or delivered
+        double sentSeconds = sent.get() == 0 ? 0 : Math.max(lastSent.get() - firstSent.get(), 1) / 1e9;
+        double deliveredSeconds = delivered.get() == 0 ? 0 : Math.max(lastDelivered.get() - firstSent.get(), 1) / 1e9;
+        return String.format("users: %d%n" +
+                        "sent: %d (%.0f/s)%n" +
+                        "delivered: %d (%.0f/s)%n" +
+                        "timeouts: %d%n" +
+                        "delivery latency: p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms%n",
+                users, sent.get(), perSecond(sent.get(), sentSeconds), delivered.get(),
+                perSecond(delivered.get(), deliveredSeconds),
+                timeouts.get(), latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3,
+                latencies.percentile(0.999) / 1e3, latencies.percentile(1) / 1e3);
+    }
+
+    private static double perSecond(long count, double seconds) {
+        return seconds == 0 ? 0 : count / seconds;
+    }
+}
+
+// Histogram of microsecond values with about 1.5% precision: exact below 128, beyond that 64 buckets per power of two
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private AtomicLongArray counts = new AtomicLongArray(2 * SUB_BUCKETS + 64 * SUB_BUCKETS);
+    private AtomicLong total = new AtomicLong();
+
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(Math.max(micros, 0)));
+        total.incrementAndGet();
+    }
+
+    // Smallest recorded value that fraction of the values does not exceed, in microseconds
+    public long percentile(double fraction) {
+        long target = Math.max(1, (long) Math.ceil(total.get() * fraction));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return valueOf(i);
+        }
+        return 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6; // Keep the 7 highest bits
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // Highest value of the bucket
+    private static long valueOf(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long high = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((high + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,155 @@
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Mailbox of the communication actor bounding the chat messages waiting in it, so a slow client keeps a fixed
+// backlog. Other messages, such as commands, replies and timers, are never dropped.
+public class OverflowMailbox implements MailboxType, ProducesMessageQueue<OverflowMailbox.OverflowQueue> {
+    // What happens to chat messages arriving at a full mailbox
+    public enum Overflow {
+        DROP_OLDEST, // The oldest waiting message makes room for the new one
+        DROP_NOTICE, // The new message is dropped, the actor is told how many were skipped
+        PAUSE // The actor is told to pause deliveries once full and to resume them once half empty
+    }
+
+    private int capacity; // Chat messages allowed to wait
+    private Overflow overflow;
+
+    public OverflowMailbox(ActorSystem.Settings settings, Config config) {
+        capacity = config.getInt("capacity");
+        overflow = Overflow.valueOf(config.getString("overflow").toUpperCase().replace('-', '_'));
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        return new OverflowQueue(capacity, overflow, system.isDefined() ? system.get() : null);
+    }
+
+    // Chat messages are texts and batches delivered to the user, the ones a busy group floods the client with
+    private static boolean isChat(Object message) {
+        return message instanceof TextData || message instanceof DataBatch;
+    }
+
+    private static int messagesIn(Object message) {
+        return message instanceof DataBatch ? ((DataBatch) message).getData().size() : 1;
+    }
+
+    public static class OverflowQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private ArrayDeque<Envelope> queue = new ArrayDeque<>();
+        private int capacity;
+        private Overflow overflow;
+        private ActorSystem system;
+        private int chats = 0; // Chat messages waiting
+        private int skipped = 0; // Messages dropped since the actor was last told, not counted when dropping the oldest
+        private boolean paused = false;
+
+        public OverflowQueue(int capacity, Overflow overflow, ActorSystem system) {
+            this.capacity = capacity;
+            this.overflow = overflow;
+            this.system = system;
+        }
+
+        @Override
+        public synchronized void enqueue(ActorRef receiver, Envelope handle) {
+            if (!isChat(handle.message())) {
+                queue.add(handle);
+                return;
+            }
+            if (overflow == Overflow.PAUSE && !paused && chats + 1 >= capacity) {
+                // Ahead of the backlog, so the pause reaches the server in time
+                paused = true;
+                queue.addFirst(Envelope.apply(new DeliveryPressure(true), ActorRef.noSender(), system));
+            }
+            if (chats < capacity) {
+                queue.add(handle);
+                chats++;
+            } else if (overflow == Overflow.DROP_OLDEST) {
+                dropOldest();
+                queue.add(handle);
+            } else {
+                skipped += messagesIn(handle.message()); // Paused deliveries still in flight are dropped too
+            }
+        }
+
+        // Remove the oldest chat message
+        private void dropOldest() {
+            Iterator<Envelope> handles = queue.iterator();
+            while (handles.hasNext()) {
+                if (isChat(handles.next().message())) {
+                    handles.remove();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public synchronized Envelope dequeue() {
+            // Report skipped messages once the backlog is half gone, where the gap is
+            if (skipped > 0 && chats <= capacity / 2) {
+                Envelope notice = Envelope.apply(new MessagesSkipped(skipped), ActorRef.noSender(), system);
+                skipped = 0;
+                return notice;
+            }
+            if (paused && chats <= capacity / 2) {
+                paused = false;
+                return Envelope.apply(new DeliveryPressure(false), ActorRef.noSender(), system);
+            }
+            Envelope handle = queue.poll();
+            if (handle != null && isChat(handle.message()))
+                chats--;
+            return handle;
+        }
+
+        @Override
+        public synchronized int numberOfMessages() {
+            return queue.size();
+        }
+
+        @Override
+        public synchronized boolean hasMessages() {
+            return !queue.isEmpty() || skipped > 0 || paused;
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Envelope handle;
+            while ((handle = dequeue()) != null)
+                deadLetters.enqueue(owner, handle);
+        }
+    }
+}
+
+// Told to the communication actor when chat messages were dropped by its full mailbox
+class MessagesSkipped {
+    private int count;
+
+    public MessagesSkipped(int count) {
+        this.count = count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
+
+// Told to the communication actor when its mailbox fills up, and again once it has room
+class DeliveryPressure {
+    private boolean paused;
+
+    public DeliveryPressure(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+}
@@ -0,0 +1,137 @@
+import akka.actor.ActorRef;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+// User of the load generator: runs the scenario lines through the client command grammar and accepts every invite
+public class SimulatedUser extends IOActor {
+    private static final String STAMP = "#load:"; // Marks the send time of a message in its text
+    private static final String INVITED = "You have been invited to ";
+
+    private LoadScenario scenario;
+    private int index; // Index of this user in the run
+    private ActorRef coordinator;
+    private LoadStats stats;
+    private int step = 0; // Scenario line to run next
+    private String repeatLine; // Command of a repeat directive being run
+    private int repeatsLeft = 0;
+    private long repeatInterval; // Milliseconds between two repeated commands
+
+    public SimulatedUser(LoadScenario scenario, int index, ActorRef coordinator, LoadStats stats) {
+        super("CommunicationActor-" + index);
+        this.scenario = scenario;
+        this.index = index;
+        this.coordinator = coordinator;
+        this.stats = stats;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(RunStep.class, msg -> runSteps())
+                .match(BarrierReleased.class, msg -> runSteps())
+                .match(RepeatCommand.class, msg -> repeat())
+                .build().orElse(super.createReceive());
+    }
+
+    @Override
+    public void preStart() {
+        super.preStart();
+        self().tell(new RunStep(), self());
+    }
+
+    // Run scenario lines until one has to wait
+    private void runSteps() {
+        while (step < scenario.getLines().size()) {
+            String line = scenario.getLines().get(step++).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] words = line.split(" ");
+            switch (words[0]) {
+                case "sleep":
+                    schedule(new RunStep(), Long.parseLong(words[1]));
+                    return;
+                case "barrier":
+                    coordinator.tell(new BarrierReached(), self());
+                    return;
+                case "repeat":
+                    repeatsLeft = Integer.parseInt(words[1]);
+                    repeatInterval = Long.parseLong(words[2]);
+                    repeatLine = line.split(" ", 4)[3];
+                    repeat();
+                    return;
+                case "admin":
+                    if (scenario.isAdmin(index))
+                        send(line.substring("admin ".length()));
+                    break;
+                case "member":
+                    if (!scenario.isAdmin(index))
+                        send(line.substring("member ".length()));
+                    break;
+                default:
+                    send(line);
+            }
+        }
+        coordinator.tell(new ScenarioDone(), self());
+    }
+
+    private void repeat() {
+        if (repeatsLeft-- <= 0) {
+            runSteps();
+            return;
+        }
+        send(repeatLine);
+        schedule(new RepeatCommand(), repeatInterval);
+    }
+
+    private void schedule(Object msg, long millis) {
+        context().system().scheduler().scheduleOnce(FiniteDuration.apply(millis, TimeUnit.MILLISECONDS),
+                self(), msg, context().dispatcher(), self());
+    }
+
+    // Fill in the placeholders of a command and run it, once for every other member of the group if it names one
+    private void send(String command) {
+        command = command.replace("{user}", scenario.username(index))
+                .replace("{group}", scenario.groupname(index))
+                .replace("{admin}", scenario.username(scenario.adminOf(index)));
+        if (command.contains("{stamp}"))
+            command = command.replace("{stamp}", STAMP + stats.stamp());
+        if (!command.contains("{member}")) {
+            buildCommand(command);
+            return;
+        }
+        for (int member : scenario.membersOf(index)) {
+            if (member != index)
+                buildCommand(command.replace("{member}", scenario.username(member)));
+        }
+    }
+
+    // Record the deliveries of stamped messages instead of printing
+    @Override
+    protected void print(String message) {
+        int stamp = message.indexOf(STAMP);
+        while (stamp >= 0) {
+            int start = stamp + STAMP.length();
+            int end = start;
+            while (end < message.length() && Character.isDigit(message.charAt(end)))
+                end++;
+            stats.delivered(Long.parseLong(message.substring(start, end)));
+            stamp = message.indexOf(STAMP, end);
+        }
+
+        int invited = message.indexOf(INVITED);
+        if (invited >= 0) {
+            int start = invited + INVITED.length();
+            buildCommand("yes " + message.substring(start, message.indexOf(',', start)));
+        } else if (message.equals(CommunicationActor.SERVER_OFFLINE) || message.equals(CommunicationActor.CONNECT_OFFLINE))
+            stats.timeout(); // Only the client's own message for a request without reply
+    }
+}
+
+// Continue the scenario of a simulated user
+class RunStep {
+}
+
+// Run the next command of a repeat directive
+class RepeatCommand {
+}
@@ -0,0 +1,23 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Time of day prefix of printed messages, formatted once per second
+public class Timestamps {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("'['HH:mm:ss']'");
+
+    private ZoneId zone = ZoneId.systemDefault();
+    private long second = -1; // Epoch second of the cached prefix
+    private String prefix;
+
+    // Prefix of the current time
+    public String now() {
+        long current = System.currentTimeMillis() / 1000;
+        if (current != second) {
+            prefix = FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(current), zone));
+            second = current;
+        }
+        return prefix;
+    }
+}
@@ -0,0 +1,260 @@
+import akka.actor.AbstractActorWithTimers;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Local content addressed store of the files sent to groups, each file is uploaded once and fetched by the members
+public class BlobStore extends AbstractActorWithTimers {
+    private Path directory; // Stored files, named by their content hash
+    private Path uploadDirectory; // Files being uploaded
+    private long maxSize; // Total size of stored files before evicting the least recently used ones
+    private long maxFileSize; // Largest file accepted for upload
+    private Duration uploadTimeout; // Idle time before an upload is dropped
+    private long totalSize = 0;
+    // Stored file sizes by hash, in least recently used order
+    private LinkedHashMap<String, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    // Uploads in progress by sender and transfer id, so a client cannot write to the upload of another
+    private HashMap<String, Upload> uploads = new HashMap<>();
+
+    public BlobStore() {
+        Config config = context().system().settings().config().getConfig("chat.blob-store");
+        directory = Paths.get(config.getString("directory")).toAbsolutePath();
+        uploadDirectory = directory.resolve("uploads");
+        maxSize = config.getBytes("max-size");
+        maxFileSize = config.getBytes("max-file-size");
+        uploadTimeout = config.getDuration("upload-timeout");
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        Files.createDirectories(uploadDirectory);
+        // Drop uploads interrupted by a restart
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploadDirectory)) {
+            for (Path path : stream)
+                Files.deleteIfExists(path);
+        }
+        // Keep files stored before the restart
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path path : stream) {
+                long size = Files.size(path);
+                blobs.put(path.getFileName().toString(), size);
+                totalSize += size;
+            }
+        }
+        evict();
+        getTimers().startPeriodicTimer("sweep", new SweepUploads(), uploadTimeout);
+    }
+
+    @Override
+    public void postStop() {
+        for (Upload upload : uploads.values())
+            upload.discard();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(FileChunk.class, this::handleUpload)
+                .match(FetchChunk.class, this::handleFetch)
+                .match(SweepUploads.class, msg -> sweepUploads())
+                .build();
+    }
+
+    private void handleUpload(FileChunk chunk) {
+        String key = sender().path().toSerializationFormat() + " " + chunk.getTransferId();
+        Upload upload = uploads.get(key);
+        try {
+            if (!isWithinFile(chunk, upload))
+                throw new IOException("chunk outside of the declared file size");
+            if (upload == null) { // First chunk of the file
+                upload = new Upload(Files.createTempFile(uploadDirectory, "upload", ".part"), chunk.getSize());
+                uploads.put(key, upload);
+            }
+            upload.write(chunk.getData(), chunk.getOffset());
+        } catch (Exception e) {
+            if (upload != null) {
+                uploads.remove(key);
+                upload.discard();
+            }
+            sender().tell(ServerMetrics.failure(null, null), self());
+            return;
+        }
+
+        if (!upload.isComplete()) {
+            // Acknowledge chunk
+            sender().tell(new Success(), self());
+            return;
+        }
+
+        // Last chunk, move file to its content address
+        uploads.remove(key);
+        try {
+            String hash = store(upload);
+            sender().tell(new BlobStored(hash, upload.getSize(), self()), self());
+        } catch (Exception e) {
+            upload.discard();
+            sender().tell(ServerMetrics.failure(null, null), self());
+        }
+    }
+
+    // Verify the declared size is allowed and the chunk lies within it
+    private boolean isWithinFile(FileChunk chunk, Upload upload) {
+        long size = upload == null ? chunk.getSize() : upload.getSize();
+        return size >= 0 && size <= maxFileSize && chunk.getSize() == size
+                && chunk.getOffset() >= 0 && chunk.getOffset() <= size - chunk.getData().length;
+    }
+
+    private String store(Upload upload) throws Exception {
+        upload.close();
+        String hash = hash(upload.getPath());
+        Path path = directory.resolve(hash);
+
+        if (blobs.containsKey(hash)) { // Same content already stored
+            Files.delete(upload.getPath());
+            blobs.get(hash); // Mark as recently used
+            return hash;
+        }
+        Files.move(upload.getPath(), path, StandardCopyOption.REPLACE_EXISTING);
+        blobs.put(hash, upload.getSize());
+        totalSize += upload.getSize();
+        evict();
+        return hash;
+    }
+
+    // SHA-256 of file content as hex string
+    private String hash(Path path) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                digest.update(buffer, 0, read);
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest())
+            hash.append(String.format("%02x", b));
+        return hash.toString();
+    }
+
+    // Remove least recently used files until the store fits its size, the newest file is always kept
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = blobs.entrySet().iterator();
+        while (totalSize > maxSize && blobs.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalSize -= eldest.getValue();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                System.out.println("Error in deleting " + eldest.getKey());
+            }
+        }
+    }
+
+    private void handleFetch(FetchChunk fetch) {
+        Long size = blobs.get(fetch.getHash()); // Also marks file as recently used
+        if (size == null || fetch.getOffset() < 0 || fetch.getOffset() > size) {
+            sender().tell(ServerMetrics.failure(Reason.EVICTED, fetch.getHash()), self());
+            return;
+        }
+
+        // Read the requested range
+        int length = (int) Math.max(0, Math.min(fetch.getLength(), size - fetch.getOffset()));
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(directory.resolve(fetch.getHash()), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, fetch.getOffset() + buffer.position()) < 0)
+                    break;
+            }
+        } catch (IOException e) {
+            sender().tell(ServerMetrics.failure(Reason.EVICTED, fetch.getHash()), self());
+            return;
+        }
+        sender().tell(new FileChunk(null, null, buffer.array(), fetch.getHash(), null, fetch.getOffset(), size), self());
+    }
+
+    // Drop uploads whose sender stopped sending
+    private void sweepUploads() {
+        long now = System.nanoTime();
+        Iterator<Upload> iterator = uploads.values().iterator();
+        while (iterator.hasNext()) {
+            Upload upload = iterator.next();
+            if (now - upload.getLastWrite() > uploadTimeout.toNanos()) {
+                iterator.remove();
+                upload.discard();
+            }
+        }
+    }
+}
+
+// File being uploaded to the store
+class Upload {
+    private Path path;
+    private FileChannel channel;
+    private long size; // Size of the whole file
+    private ByteRanges written = new ByteRanges(); // Parts written so far
+    private long lastWrite = System.nanoTime();
+
+    public Upload(Path path, long size) throws IOException {
+        this.path = path;
+        this.size = size;
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastWrite() {
+        return lastWrite;
+    }
+
+    // Write chunk at its position, chunks may be written in any order
+    public void write(byte[] data, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            channel.write(buffer, offset + buffer.position());
+        written.add(offset, offset + data.length);
+        lastWrite = System.nanoTime();
+    }
+
+    public boolean isComplete() {
+        return written.covers(size);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Close and delete the partial file
+    public void discard() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
+
+// Periodic message of the store to itself
+class SweepUploads {
+}
@@ -0,0 +1,97 @@
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializerWithStringManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.util.HashMap;
+
+// Binary serializer of the messages passed between the server nodes
+public class ClusterSerializer extends SerializerWithStringManifest {
+    static final String USER_JOINED = "UJ";
+    static final String USER_LEFT = "UL";
+    static final String ADOPT_GROUP = "AG";
+    static final String DELIVERY_PAUSED = "DP";
+
+    private static final HashMap<Class<?>, String> manifests = new HashMap<>();
+
+    static {
+        manifests.put(UserJoined.class, USER_JOINED);
+        manifests.put(UserLeft.class, USER_LEFT);
+        manifests.put(AdoptGroup.class, ADOPT_GROUP);
+        manifests.put(DeliveryPaused.class, DELIVERY_PAUSED);
+    }
+
+    private final ExtendedActorSystem system; // Used for resolving actor references
+
+    public ClusterSerializer(ExtendedActorSystem system) {
+        this.system = system;
+    }
+
+    @Override
+    public int identifier() {
+        return 3554;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        String manifest = manifests.get(o.getClass());
+        if (manifest == null)
+            throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+        return manifest;
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            switch (manifest(o)) {
+                case USER_JOINED:
+                    User user = ((UserJoined) o).getUser();
+                    out.writeUTF(user.getUsername());
+                    out.writeUTF(Serialization.serializedActorPath(user.getCommunicationActor()));
+                    break;
+                case USER_LEFT:
+                    out.writeUTF(((UserLeft) o).getUsername());
+                    break;
+                case ADOPT_GROUP:
+                    GroupStore.writeGroup(out, ((AdoptGroup) o).getGroup());
+                    break;
+                case DELIVERY_PAUSED:
+                    DeliveryPaused deliveryPaused = (DeliveryPaused) o;
+                    out.writeUTF(deliveryPaused.getUsername());
+                    out.writeBoolean(deliveryPaused.isPaused());
+                    break;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by in memory streams
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            switch (manifest) {
+                case USER_JOINED:
+                    String username = in.readUTF();
+                    return new UserJoined(new User(username, system.provider().resolveActorRef(in.readUTF())));
+                case USER_LEFT:
+                    return new UserLeft(in.readUTF());
+                case ADOPT_GROUP:
+                    return new AdoptGroup(GroupStore.readGroup(in));
+                case DELIVERY_PAUSED:
+                    return new DeliveryPaused(in.readUTF(), in.readBoolean());
+            }
+        } catch (IOException e) {
+            throw new NotSerializableException("Corrupted " + manifest + ": " + e.getMessage());
+        }
+        throw new NotSerializableException("Unknown manifest " + manifest);
+    }
+}
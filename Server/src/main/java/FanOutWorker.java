@@ -0,0 +1,42 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+
+// Sends the broadcasts of a large group to a partition of its members, off the group actor's thread
+public class FanOutWorker extends AbstractActor {
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(FanOut.class, this::handleFanOut)
+                .build();
+    }
+
+    private void handleFanOut(FanOut fanOut) {
+        for (ActorRef member : fanOut.getMembers())
+            member.tell(fanOut.getMsg(), fanOut.getSender());
+    }
+}
+
+// Message to send to members on behalf of the group
+class FanOut {
+    private Object msg;
+    private ActorRef sender; // Sender seen by the members
+    private ActorRef[] members; // Roster partition snapshot, never changed after sending
+
+    public FanOut(Object msg, ActorRef sender, ActorRef[] members) {
+        this.msg = msg;
+        this.sender = sender;
+        this.members = members;
+    }
+
+    public Object getMsg() {
+        return msg;
+    }
+
+    public ActorRef getSender() {
+        return sender;
+    }
+
+    public ActorRef[] getMembers() {
+        return members;
+    }
+}
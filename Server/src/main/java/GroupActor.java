@@ -0,0 +1,689 @@
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Props;
+import akka.serialization.Serialization;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// Actor owning a single group: membership, mute state and broadcasting to the members
+public class GroupActor extends AbstractActorWithTimers {
+    private Group group; // Group state, touched only by this actor
+    private ActorRef journal; // Keeps the group changes on disk
+    private HashMap<String, Mute> mutes = new HashMap<>(); // Mute of every muted member
+    private TimingWheel<String> muteWheel; // Mute deadlines of the muted members
+    private Duration muteTick; // Time between two advances of the mute wheel
+    private boolean batching; // Deliver group messages in batches instead of one by one
+    private Duration batchWindow; // Time a message may wait for others before the batch is delivered
+    private int batchSize; // Messages delivering a batch at once
+    private ArrayList<Data> batch = new ArrayList<>(); // Messages waiting for delivery
+    private int fanOutWorkers; // Workers sharing the broadcasts of a large group, one per roster partition
+    private int fanOutThreshold; // Members from which broadcasts are handed to the workers
+    private ActorRef[] workers; // Fan-out workers, created once the group grows large
+    private UserRateLimit userLimit; // Rate limit of each sender, shared with the other groups of this node
+    // Rate limit of the messages of the whole group
+    private RateLimit groupLimit = new RateLimit(context().system().settings().config().getConfig("chat.rate-limits.group"));
+    private long groupBucket = 0; // Bucket state of the group limit
+    private ProcessingTimes processingTimes = ServerMetrics.get().processingTimes("group");
+
+    public GroupActor(String groupname, User admin, ActorRef journal, UserRateLimit userLimit) {
+        this.journal = journal;
+        this.userLimit = userLimit;
+        readMuteConfig();
+        readFanOutConfig();
+        createGroup(groupname, admin);
+        log(GroupEventType.CREATED, admin.getUsername(), admin.getCommunicationActor(), State.ADMIN);
+        readBatchingConfig();
+    }
+
+    // Group recovered from the group store after a restart, or adopted from another node and stored again here
+    public GroupActor(StoredGroup stored, ActorRef journal, UserRateLimit userLimit, boolean adopted) {
+        this.journal = journal;
+        this.userLimit = userLimit;
+        readMuteConfig();
+        readFanOutConfig();
+        long now = System.currentTimeMillis();
+        for (StoredMember member : stored.getMembers().values()) {
+            User user = new User(member.getUsername(), resolve(member.getActorPath()));
+            State state = member.getState() == State.MUTE ? State.USER : member.getState();
+            if (group == null) { // Admin is stored first
+                createGroup(stored.getGroupname(), user);
+                if (adopted)
+                    log(GroupEventType.CREATED, user.getUsername(), user.getCommunicationActor(), State.ADMIN);
+                continue;
+            }
+            group.addMember(user, state);
+            if (adopted)
+                log(GroupEventType.JOINED, user.getUsername(), user.getCommunicationActor(), state);
+            if (member.getState() != State.MUTE)
+                continue;
+
+            // Mute until the stored deadline, or end it right away if it is over
+            if (member.getMuteDeadline() <= now)
+                log(GroupEventType.UNMUTED, user.getUsername(), null, State.USER);
+            else if (adopted) // Store the mute on this node too
+                mute(member.getMutedBy(), user, member.getMuteDeadline());
+            else
+                restoreMute(member.getMutedBy(), user, member.getMuteDeadline());
+        }
+        readBatchingConfig();
+    }
+
+    private void createGroup(String groupname, User admin) {
+        // Roster partitioned by fan-out worker, containing only creator
+        group = new Group(new Roster(fanOutWorkers), groupname, admin);
+    }
+
+    private void readFanOutConfig() {
+        Config config = context().system().settings().config().getConfig("chat.group-fan-out");
+        fanOutWorkers = config.getInt("workers");
+        fanOutThreshold = config.getInt("threshold");
+    }
+
+    private void readMuteConfig() {
+        Config config = context().system().settings().config().getConfig("chat.mute-wheel");
+        muteTick = config.getDuration("tick");
+        muteWheel = new TimingWheel<>(muteTick.toMillis(), config.getInt("wheel-size"), System.currentTimeMillis());
+    }
+
+    private void readBatchingConfig() {
+        Config config = context().system().settings().config().getConfig("chat.group-batching");
+        batching = config.getBoolean("enabled");
+        batchWindow = config.getDuration("window");
+        batchSize = config.getInt("max-messages");
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(GroupRequest.class, req -> processingTimes.time(req.getCommand().getClass(), req, this::handleGroupRequest))
+                .match(Data.class, data -> processingTimes.time(data.getClass(), data, this::handleGroupData))
+                .match(MemberDisconnected.class, this::handleMemberDisconnected)
+                .match(MemberConnected.class, this::handleMemberConnected)
+                .match(MemberPaused.class, this::handleMemberPaused)
+                .match(TickMutes.class, msg -> handleTickMutes())
+                .match(FlushBatch.class, msg -> flushBatch())
+                .match(HandOffGroup.class, msg -> handOff())
+                .build();
+    }
+
+    // Behavior after the group has been closed, until the manager stops this actor
+    private Receive closed() {
+        return receiveBuilder().match(GroupRequest.class, req -> sender().tell(ServerMetrics.failure(Reason.GROUPNAME, null), self()))
+                .match(Data.class, data -> sender().tell(ServerMetrics.failure(Reason.GROUPNAME, null), self()))
+                .build();
+    }
+
+    // Dispatch a command forwarded by the manager
+    private void handleGroupRequest(GroupRequest request) {
+        GroupCommand cmd = request.getCommand();
+        User target = request.getTarget();
+
+        if (cmd instanceof LeaveGroup)
+            handleLeaveGroup((LeaveGroup) cmd, target);
+        else if (cmd instanceof Inviter)
+            handleInviter((Inviter) cmd, target);
+        else if (cmd instanceof GroupAdd)
+            handleGroupAdd(target);
+        else if (cmd instanceof GroupRemove)
+            handleGroupRemove((GroupRemove) cmd, target);
+        else if (cmd instanceof CoAdminGroupCommand)
+            handleCoAdminGroupCommand((CoAdminGroupCommand) cmd, target);
+        else if (cmd instanceof MuteMember)
+            handleMuteMember((MuteMember) cmd, target);
+        else if (cmd instanceof UnmuteMember)
+            handleUnmuteMember((UnmuteMember) cmd, target);
+        else if (cmd instanceof GroupFile)
+            handleGroupFile((GroupFile) cmd);
+    }
+
+    // Verify source exists and have required privileges
+    private boolean validateSourcePrivileges(String source) {
+        if (!group.isMember(source) ||
+                !(group.isMemberState(source, State.ADMIN) || group.isMemberState(source, State.COADMIN))) {
+            sender().tell(ServerMetrics.failure(Reason.SOURCE, null), self());
+            return false;
+        }
+        return true;
+    }
+
+    // Verify user is a member of group
+    private boolean validateMembership(String username) {
+        if (!group.isMember(username)) {
+            sender().tell(ServerMetrics.failure(Reason.NOTINGROUP, null), self());
+            return false;
+        }
+        return true;
+    }
+
+    // Verify user is not a member of group
+    private boolean validateNonMembership(String username) {
+        if (group.isMember(username)) {
+            sender().tell(ServerMetrics.failure(Reason.INGROUP, null), self());
+            return false;
+        }
+        return true;
+    }
+
+    // Verify user is not an admin of a group
+    private boolean validateAdminOperations(String username) {
+        if (group.isMemberState(username, State.ADMIN)) {
+            sender().tell(ServerMetrics.failure(Reason.FORBIDDEN, null), self());
+            return false;
+        }
+        return true;
+    }
+
+    // Verify user is muted in group
+    private boolean validateMuted(String username) {
+        if (!group.isMemberState(username, State.MUTE)) {
+            sender().tell(ServerMetrics.failure(Reason.NOTMUTED, null), self());
+            return false;
+        }
+        return true;
+    }
+
+    // Verify source is a member of the group
+    private boolean validateSourceMembership(String source) {
+        if (!group.isMember(source)) {
+            sender().tell(ServerMetrics.failure(Reason.SOURCE, null), self());
+            return false;
+        }
+        return true;
+    }
+
+    // Verify source may send messages to the group
+    private boolean validateSender(String source) {
+        if (!validateSourceMembership(source))
+            return false;
+
+        // Verify source is not muted, a mute over since the last tick ends now
+        if (group.isMemberState(source, State.MUTE)) {
+            long remaining = group.getMuteRemaining(source, System.currentTimeMillis());
+            if (remaining > 0) {
+                sender().tell(ServerMetrics.failure(Reason.MUTED, Long.toString(remaining)), self());
+                return false;
+            }
+            expireMute(source);
+        }
+        return true;
+    }
+
+    // Verify neither the group nor the source is sent faster than its rate limit, a rejected message spends neither
+    private boolean validateRate(String source) {
+        long now = groupLimit.now();
+        long delay = groupLimit.delay(groupBucket, now);
+        if (delay == 0)
+            delay = userLimit.take(source);
+        if (delay > 0) {
+            sender().tell(ServerMetrics.failure(Reason.RATE, Long.toString(RateLimit.toRetryMillis(delay))), self());
+            return false;
+        }
+        groupBucket = groupLimit.take(groupBucket, now);
+        return true;
+    }
+
+    // Validations used frequently, group and target existence are verified by the manager
+    private boolean commonValidations(String source, String target) {
+        return (validateSourcePrivileges(source) &&
+                validateMembership(target) &&
+                validateAdminOperations(target));
+    }
+
+    private void handleUnmuteMember(UnmuteMember cmd, User target) {
+        // Validations
+        if (!(commonValidations(cmd.getSource(), cmd.getTarget()) &&
+                validateMuted(cmd.getTarget())))
+            return;
+
+        // Unmute target user in group
+        unmute(cmd.getTarget());
+        log(GroupEventType.UNMUTED, cmd.getTarget(), null, State.USER);
+        // Notify sender about success
+        sender().tell(new Success(target), self());
+    }
+
+    private void handleMuteMember(MuteMember cmd, User target) {
+        // Validations
+        if (!commonValidations(cmd.getSource(), cmd.getTarget()))
+            return;
+
+        mute(cmd.getSource(), target, System.currentTimeMillis() + cmd.getDuration());
+        // Notify sender about success
+        sender().tell(new Success(target), self());
+    }
+
+    // Mute user in group until deadline in epoch milliseconds
+    private void mute(String source, User target, long deadline) {
+        restoreMute(source, target, deadline);
+        journal.tell(new GroupEvent(GroupEventType.MUTED, group.getGroupname(), target.getUsername(), null,
+                State.MUTE, deadline, source), self());
+    }
+
+    // Mute user in group without storing the mute, which the group store already holds
+    private void restoreMute(String source, User target, long deadline) {
+        String username = target.getUsername();
+        group.muteMember(username, deadline);
+        mutes.put(username, new Mute(source, target));
+        // Unmuting is handled inside this actor by the ticks of the wheel
+        muteWheel.schedule(username, deadline);
+        if (!getTimers().isTimerActive("mutes"))
+            getTimers().startPeriodicTimer("mutes", new TickMutes(), muteTick);
+    }
+
+    // Unmute user in group, its mute no longer expires
+    private void unmute(String username) {
+        group.unmuteMember(username);
+        mutes.remove(username);
+        muteWheel.cancel(username);
+        if (muteWheel.isEmpty())
+            getTimers().cancel("mutes");
+    }
+
+    // End the mutes whose deadline has passed
+    private void handleTickMutes() {
+        for (String username : muteWheel.advance(System.currentTimeMillis()))
+            expireMute(username);
+        if (muteWheel.isEmpty())
+            getTimers().cancel("mutes");
+    }
+
+    private void expireMute(String username) {
+        Mute mute = mutes.get(username);
+        unmute(username);
+        log(GroupEventType.UNMUTED, username, null, State.USER);
+        // Inform user about unmuting
+        tellMember(username, new TextData(mute.getSource(), group.getGroupname(),
+                "You have been unmuted! Muting time is up!"));
+    }
+
+    private void handleCoAdminGroupCommand(CoAdminGroupCommand cmd, User target) {
+        // Validations
+        if (!commonValidations(cmd.getSource(), cmd.getTarget()))
+            return;
+
+        // Notify sender about success
+        sender().tell(new Success(target), self());
+
+        // Determine desired new state
+        State state = State.COADMIN;
+        if (cmd instanceof CoAdminRemove)
+            state = State.USER;
+
+        // Set new member state
+        group.setMemberState(target.getUsername(), state);
+        log(GroupEventType.STATE, target.getUsername(), null, state);
+    }
+
+    private void handleGroupRemove(GroupRemove cmd, User target) {
+        // Validations
+        if (!commonValidations(cmd.getSource(), cmd.getTarget()))
+            return;
+
+        // Notify sender about success
+        sender().tell(new Success(target), self());
+        removeMember(target); //Remove user from group
+    }
+
+    private void handleGroupAdd(User target) {
+        // Add user to group members
+        if (!group.isMember(target.getUsername()))
+            addMember(target, State.USER);
+    }
+
+    // Add member to group and report it to the manager's user index
+    private void addMember(User user, State state) {
+        flushBatch(); // Messages sent before joining are not delivered to the new member
+        group.addMember(user, state);
+        log(GroupEventType.JOINED, user.getUsername(), user.getCommunicationActor(), state);
+        context().parent().tell(new MembershipChanged(group.getGroupname(), user, true), self());
+    }
+
+    // Remove member from group and report it to the manager's user index
+    private void removeMember(User user) {
+        flushBatch(); // Messages sent before leaving are still delivered to the member
+        group.removeMember(user);
+        mutes.remove(user.getUsername());
+        muteWheel.cancel(user.getUsername());
+        log(GroupEventType.LEFT, user.getUsername(), null, null);
+        context().parent().tell(new MembershipChanged(group.getGroupname(), user, false), self());
+    }
+
+    private void handleInviter(Inviter cmd, User target) {
+        // Validations
+        if (!(validateSourcePrivileges(cmd.getSource()) &&
+                validateNonMembership(cmd.getTarget())))
+            return;
+
+        // Notify sender about success
+        sender().tell(new Success(target), self());
+    }
+
+    private void handleGroupFile(GroupFile cmd) {
+        // Validations, the file is rate limited once, when it is offered to the group after the upload
+        if (!validateSender(cmd.getSource()))
+            return;
+
+        // Notify sender about success
+        sender().tell(new Success(), self());
+    }
+
+    private void handleGroupData(Data data) {
+        // Validations
+        if (!validateSender(data.getSource()) || !validateRate(data.getSource()))
+            return;
+
+        // Notify sender about success
+        sender().tell(new Success(), self());
+        if (!batching) {
+            // Broadcast message to group members
+            fanOut(data, sender());
+            return;
+        }
+
+        // Wait for more messages, the first message of a batch starts its window
+        batch.add(data);
+        if (batch.size() >= batchSize)
+            flushBatch();
+        else if (batch.size() == 1)
+            getTimers().startSingleTimer("batch", new FlushBatch(), batchWindow);
+    }
+
+    // Broadcast waiting messages to group members, a single message is sent as is
+    private void flushBatch() {
+        getTimers().cancel("batch");
+        if (batch.isEmpty())
+            return;
+        if (batch.size() == 1)
+            fanOut(batch.get(0), self());
+        else
+            fanOut(new DataBatch(group.getGroupname(), batch), self());
+        batch = new ArrayList<>();
+    }
+
+    // Broadcast a message of the group itself after the messages waiting for delivery
+    private void broadcast(Data data) {
+        flushBatch();
+        fanOut(data, self());
+    }
+
+    // Send message to every member, a large group hands each roster partition to its own worker
+    private void fanOut(Object msg, ActorRef sender) {
+        Roster roster = group.getRoster();
+        roster.skip(msg instanceof DataBatch ? ((DataBatch) msg).getData().size() : 1);
+        // Once the workers exist the group keeps sending through them, even after it shrinks
+        if (workers == null && roster.size() < fanOutThreshold) {
+            roster.broadcast(msg, sender);
+            return;
+        }
+        if (workers == null) {
+            workers = new ActorRef[roster.getPartitionCount()];
+            for (int i = 0; i < workers.length; i++)
+                workers[i] = context().actorOf(Props.create(FanOutWorker.class), "fan-out-" + i);
+        }
+        // A member is always sent to by the same worker, keeping its messages in order
+        for (int i = 0; i < workers.length; i++) {
+            ActorRef[] members = roster.snapshot(i);
+            if (members.length > 0)
+                workers[i].tell(new FanOut(msg, sender, members), self());
+        }
+    }
+
+    // Send message to a single member, behind the broadcasts its worker has not sent yet
+    private void tellMember(String username, Object msg) {
+        ActorRef actor = group.getMemberActor(username);
+        if (workers == null)
+            actor.tell(msg, self());
+        else
+            workers[group.getMemberPartition(username)].tell(new FanOut(msg, self(), new ActorRef[]{actor}), self());
+    }
+
+    private void handleLeaveGroup(LeaveGroup cmd, User user) {
+        // Validations
+        if (!validateSourceMembership(cmd.getUsername()))
+            return;
+
+        // Notify sender about success
+        sender().tell(new Success(), self());
+        // Leave group
+        leaveGroup(user);
+    }
+
+    private void handleMemberDisconnected(MemberDisconnected msg) {
+        // Leave group (close group if user is the admin)
+        if (group.isMember(msg.getUser().getUsername()))
+            leaveGroup(msg.getUser());
+    }
+
+    // Keep a change of the group on disk
+    private void log(GroupEventType type, String username, ActorRef actor, State state) {
+        String actorPath = actor == null ? null : Serialization.serializedActorPath(actor);
+        journal.tell(new GroupEvent(type, group.getGroupname(), username, actorPath, state, 0, null), self());
+    }
+
+    private ActorRef resolve(String actorPath) {
+        return ((ExtendedActorSystem) context().system()).provider().resolveActorRef(actorPath);
+    }
+
+    // Move group to the node now owning it: hand its state to the manager and stop
+    private void handOff() {
+        flushBatch();
+        StoredGroup stored = new StoredGroup(group.getGroupname());
+        // Admin is stored first
+        ArrayList<String> usernames = group.getUsernames();
+        usernames.sort(Comparator.comparing(username -> !group.isMemberState(username, State.ADMIN)));
+        for (String username : usernames) {
+            State state = group.getMemberState(username);
+            StoredMember member = new StoredMember(username,
+                    Serialization.serializedActorPath(group.getMemberActor(username)), state);
+            Mute mute = mutes.get(username);
+            if (mute != null)
+                member.setMute(group.getMuteDeadline(username), mute.getSource());
+            stored.getMembers().put(username, member);
+        }
+        getTimers().cancel("mutes"); // The new owner ticks its own wheel
+        context().parent().tell(new GroupHandedOff(stored), self());
+        log(GroupEventType.CLOSED, null, null, null);
+        getContext().stop(self());
+    }
+
+    // Member has connected again, possibly from another client
+    private void handleMemberConnected(MemberConnected msg) {
+        User user = msg.getUser();
+        if (!group.isMember(user.getUsername()))
+            return;
+        flushBatch(); // Messages sent before are delivered to the previous actor
+        group.replaceMemberActor(user);
+        group.resumeMember(user.getUsername()); // A new client starts with an empty mailbox
+        log(GroupEventType.RECONNECTED, user.getUsername(), user.getCommunicationActor(), null);
+    }
+
+    // Client of member is overloaded: stop broadcasting to it, or start again and tell it what it has missed
+    private void handleMemberPaused(MemberPaused msg) {
+        String username = msg.getUsername();
+        if (!group.isMember(username))
+            return;
+        flushBatch(); // Messages waiting for delivery are counted like any other
+        if (msg.isPaused()) {
+            group.pauseMember(username);
+            return;
+        }
+        int skipped = group.resumeMember(username);
+        if (skipped > 0)
+            tellMember(username, new TextData(group.getGroupname(), group.getGroupname(),
+                    skipped + " messages skipped while busy!"));
+    }
+
+    // Perform leave group operation for user
+    private void leaveGroup(User user) {
+        String username = user.getUsername();
+        if (group.isMemberState(username, State.ADMIN)) { // Admin user
+            // Broadcast group closing message
+            broadcast(new TextData(username, group.getGroupname(), group.getGroupname() + " admin has closed " + group.getGroupname() + "!"));
+            log(GroupEventType.CLOSED, username, null, null);
+            // Ask the manager to remove the group, reject everything that arrives meanwhile
+            context().parent().tell(new GroupClosed(group.getGroupname(), new HashSet<>(group.getUsernames())), self());
+            getContext().become(closed());
+        } else { // Other user
+            removeMember(user); // Remove user from group
+            // Broadcast message about member leaving group
+            broadcast(new TextData(username, group.getGroupname(), username + " has left " + group.getGroupname() + "!"));
+        }
+    }
+}
+
+// Group command forwarded by the manager, along with the user it refers to
+class GroupRequest {
+    private GroupCommand command;
+    private User target;
+
+    public GroupRequest(GroupCommand command, User target) {
+        this.command = command;
+        this.target = target;
+    }
+
+    public GroupCommand getCommand() {
+        return command;
+    }
+
+    public User getTarget() {
+        return target;
+    }
+}
+
+// Sent by the manager to every group a disconnecting user may belong to
+class MemberDisconnected {
+    private User user;
+
+    public MemberDisconnected(User user) {
+        this.user = user;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
+
+// Sent by the manager to the groups of a user who has connected
+class MemberConnected {
+    private User user;
+
+    public MemberConnected(User user) {
+        this.user = user;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
+
+// Client of member has paused or resumed its group deliveries
+class MemberPaused {
+    private String username;
+    private boolean paused;
+
+    public MemberPaused(String username, boolean paused) {
+        this.username = username;
+        this.paused = paused;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+}
+
+// Mute of a group member, its deadline is kept by the group and the mute wheel
+class Mute {
+    private String source; // Member who has muted the target
+    private User target;
+
+    public Mute(String source, User target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public User getTarget() {
+        return target;
+    }
+}
+
+// Sent by a group actor to the manager once its admin has closed it
+class GroupClosed {
+    private String groupname;
+    private HashSet<String> members; // Members at closing time
+
+    public GroupClosed(String groupname, HashSet<String> members) {
+        this.groupname = groupname;
+        this.members = members;
+    }
+
+    public String getGroupname() {
+        return groupname;
+    }
+
+    public HashSet<String> getMembers() {
+        return members;
+    }
+}
+
+// Sent by a group actor to the manager whenever a user joins or leaves the group
+class MembershipChanged {
+    private String groupname;
+    private User user;
+    private boolean joined;
+
+    public MembershipChanged(String groupname, User user, boolean joined) {
+        this.groupname = groupname;
+        this.user = user;
+        this.joined = joined;
+    }
+
+    public String getGroupname() {
+        return groupname;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public boolean isJoined() {
+        return joined;
+    }
+}
+
+// Timer of a group actor delivering the messages collected so far
+class FlushBatch {
+}
+
+// Timer of a group actor advancing its mute wheel while members are muted
+class TickMutes {
+}
+
+// Sent by the manager to a group owned by another node since the nodes have changed
+class HandOffGroup {
+}
+
+// State of a group leaving this node, sent by its group actor to the manager
+class GroupHandedOff {
+    private StoredGroup group;
+
+    public GroupHandedOff(StoredGroup group) {
+        this.group = group;
+    }
+
+    public StoredGroup getGroup() {
+        return group;
+    }
+}
@@ -0,0 +1,114 @@
+import akka.actor.AbstractActorWithTimers;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+
+// Writes the changes of every group to the group store, a snapshot is taken every few changes
+public class GroupJournal extends AbstractActorWithTimers {
+    private GroupStore store;
+    private HashMap<String, StoredGroup> groups; // Stored state of every group, written by snapshots
+    private Duration commitDelay; // Time a change may wait for others before being written
+    private long snapshotEvery; // Changes logged before a new snapshot is taken
+
+    public GroupJournal(GroupStore store, HashMap<String, StoredGroup> groups) {
+        this.store = store;
+        this.groups = groups;
+        Config config = context().system().settings().config().getConfig("chat.group-store");
+        commitDelay = config.getDuration("commit-delay");
+        snapshotEvery = config.getLong("snapshot-every");
+    }
+
+    @Override
+    public void postStop() {
+        store.close();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(GroupEvent.class, this::handleGroupEvent)
+                .match(CommitGroupEvents.class, msg -> commit())
+                .build();
+    }
+
+    private void handleGroupEvent(GroupEvent event) {
+        GroupStore.apply(groups, event);
+        if (!store.hasPendingRecords())
+            getTimers().startSingleTimer("commit", new CommitGroupEvents(), commitDelay);
+        store.append(event);
+
+        if (store.getEventsSinceSnapshot() < snapshotEvery)
+            return;
+        getTimers().cancel("commit");
+        try {
+            store.snapshot(groups);
+        } catch (IOException e) {
+            System.out.println("Error in writing group snapshot: " + e.getMessage());
+        }
+    }
+
+    // Write pending changes with a single flush to disk
+    private void commit() {
+        try {
+            store.commit();
+        } catch (IOException e) {
+            System.out.println("Error in writing group log: " + e.getMessage());
+        }
+    }
+}
+
+enum GroupEventType {CREATED, CLOSED, JOINED, LEFT, RECONNECTED, STATE, MUTED, UNMUTED}
+
+// Change of a group, sent by its group actor
+class GroupEvent {
+    private GroupEventType type;
+    private String groupname;
+    private String username; // Member the change refers to
+    private String actorPath; // Serialized path of the member's communication actor
+    private State state;
+    private long muteDeadline; // Time a mute ends in epoch milliseconds
+    private String source; // User who has muted the member
+
+    public GroupEvent(GroupEventType type, String groupname, String username, String actorPath, State state, long muteDeadline, String source) {
+        this.type = type;
+        this.groupname = groupname;
+        this.username = username;
+        this.actorPath = actorPath;
+        this.state = state;
+        this.muteDeadline = muteDeadline;
+        this.source = source;
+    }
+
+    public GroupEventType getType() {
+        return type;
+    }
+
+    public String getGroupname() {
+        return groupname;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getActorPath() {
+        return actorPath;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getMuteDeadline() {
+        return muteDeadline;
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
+
+// Timer of the journal writing the changes collected so far
+class CommitGroupEvents {
+}
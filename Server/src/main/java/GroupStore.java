@@ -0,0 +1,358 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Durable group state: a snapshot of every group and a write ahead log of the changes made since
+public class GroupStore {
+    private Path directory; // Snapshot and log files, suffixed by their generation
+    private long generation = 0; // Generation of the current snapshot and log
+    private FileChannel log; // Log of the current generation, appended to
+    private ArrayList<ByteBuffer> pendingRecords = new ArrayList<>(); // Records waiting for the next commit
+    private long eventsSinceSnapshot = 0;
+
+    public GroupStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public long getEventsSinceSnapshot() {
+        return eventsSinceSnapshot;
+    }
+
+    // Load the latest snapshot and replay the log written after it
+    public HashMap<String, StoredGroup> recover() throws IOException {
+        Files.createDirectories(directory);
+        // Find latest generation, older files are left over by an interrupted snapshot
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "snapshot-*")) {
+            for (Path path : stream)
+                generation = Math.max(generation, generationOf(path));
+        }
+
+        HashMap<String, StoredGroup> groups = new HashMap<>();
+        Path snapshot = directory.resolve("snapshot-" + generation);
+        if (Files.exists(snapshot))
+            readSnapshot(snapshot, groups);
+
+        log = FileChannel.open(directory.resolve("log-" + generation),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = replay(groups);
+        log.truncate(valid); // Drop a record cut by a crash
+        log.position(valid);
+        deleteOtherGenerations();
+        return groups;
+    }
+
+    // Apply logged records, returns the size of the valid part of the log
+    private long replay(HashMap<String, StoredGroup> groups) throws IOException {
+        ByteBuffer buffer = log.map(FileChannel.MapMode.READ_ONLY, 0, log.size());
+        long valid = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining())
+                break;
+            byte[] record = new byte[length];
+            buffer.get(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum)
+                break;
+            apply(groups, readEvent(new DataInputStream(new ByteArrayInputStream(record))));
+            eventsSinceSnapshot++;
+            valid = buffer.position();
+        }
+        return valid;
+    }
+
+    // Add event to the next commit
+    public void append(GroupEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeEvent(new DataOutputStream(bytes), event);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by in memory streams
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + record.length);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        buffer.flip();
+        pendingRecords.add(buffer);
+        eventsSinceSnapshot++;
+    }
+
+    public boolean hasPendingRecords() {
+        return !pendingRecords.isEmpty();
+    }
+
+    // Write pending records with a single flush to disk
+    public void commit() throws IOException {
+        if (pendingRecords.isEmpty())
+            return;
+        ByteBuffer[] records = pendingRecords.toArray(new ByteBuffer[0]);
+        pendingRecords.clear();
+        long remaining = 0;
+        for (ByteBuffer record : records)
+            remaining += record.remaining();
+        while (remaining > 0)
+            remaining -= log.write(records);
+        log.force(false);
+    }
+
+    // Write a snapshot of every group and start a new empty log
+    public void snapshot(Map<String, StoredGroup> groups) throws IOException {
+        commit();
+        long next = generation + 1;
+        Path temp = directory.resolve("snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(groups.size());
+            for (StoredGroup group : groups.values())
+                writeGroup(out, group);
+            out.flush();
+            channel.force(true);
+        }
+        FileChannel nextLog = FileChannel.open(directory.resolve("log-" + next),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // The snapshot becomes current once renamed
+        Files.move(temp, directory.resolve("snapshot-" + next), StandardCopyOption.ATOMIC_MOVE);
+        log.close();
+        log = nextLog;
+        generation = next;
+        eventsSinceSnapshot = 0;
+        deleteOtherGenerations();
+    }
+
+    public void close() {
+        try {
+            commit();
+            if (log != null)
+                log.close();
+        } catch (IOException e) {
+            System.out.println("Error in closing group log: " + e.getMessage());
+        }
+    }
+
+    private void deleteOtherGenerations() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if ((name.startsWith("snapshot-") || name.startsWith("log-")) && generationOf(path) != generation)
+                    Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static long generationOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(name.indexOf('-') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Apply a change to the stored groups
+    public static void apply(Map<String, StoredGroup> groups, GroupEvent event) {
+        if (event.getType() == GroupEventType.CREATED) {
+            StoredGroup group = new StoredGroup(event.getGroupname());
+            group.getMembers().put(event.getUsername(), new StoredMember(event.getUsername(), event.getActorPath(), State.ADMIN));
+            groups.put(event.getGroupname(), group);
+            return;
+        }
+        StoredGroup group = groups.get(event.getGroupname());
+        if (group == null)
+            return;
+        StoredMember member = group.getMembers().get(event.getUsername());
+        switch (event.getType()) {
+            case CLOSED:
+                groups.remove(event.getGroupname());
+                break;
+            case JOINED:
+                group.getMembers().put(event.getUsername(), new StoredMember(event.getUsername(), event.getActorPath(), event.getState()));
+                break;
+            case LEFT:
+                group.getMembers().remove(event.getUsername());
+                break;
+            case RECONNECTED:
+                if (member != null)
+                    member.setActorPath(event.getActorPath());
+                break;
+            case STATE:
+                if (member != null)
+                    member.setState(event.getState());
+                break;
+            case MUTED:
+                if (member != null) {
+                    member.setState(State.MUTE);
+                    member.setMute(event.getMuteDeadline(), event.getSource());
+                }
+                break;
+            case UNMUTED:
+                if (member != null) {
+                    member.setState(State.USER);
+                    member.setMute(0, null);
+                }
+                break;
+        }
+    }
+
+    private static void writeEvent(DataOutputStream out, GroupEvent event) throws IOException {
+        out.writeByte(event.getType().ordinal());
+        out.writeUTF(event.getGroupname());
+        writeNullable(out, event.getUsername());
+        writeNullable(out, event.getActorPath());
+        out.writeByte(event.getState() == null ? -1 : event.getState().ordinal());
+        out.writeLong(event.getMuteDeadline());
+        writeNullable(out, event.getSource());
+    }
+
+    private static GroupEvent readEvent(DataInputStream in) throws IOException {
+        GroupEventType type = GroupEventType.values()[in.readByte()];
+        String groupname = in.readUTF();
+        String username = readNullable(in);
+        String actorPath = readNullable(in);
+        byte state = in.readByte();
+        long muteDeadline = in.readLong();
+        String source = readNullable(in);
+        return new GroupEvent(type, groupname, username, actorPath, state < 0 ? null : State.values()[state], muteDeadline, source);
+    }
+
+    static void writeGroup(DataOutputStream out, StoredGroup group) throws IOException {
+        out.writeUTF(group.getGroupname());
+        out.writeInt(group.getMembers().size());
+        for (StoredMember member : group.getMembers().values()) {
+            out.writeUTF(member.getUsername());
+            out.writeUTF(member.getActorPath());
+            out.writeByte(member.getState().ordinal());
+            out.writeLong(member.getMuteDeadline());
+            writeNullable(out, member.getMutedBy());
+        }
+    }
+
+    private static void readSnapshot(Path path, HashMap<String, StoredGroup> groups) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                StoredGroup group = readGroup(in);
+                groups.put(group.getGroupname(), group);
+            }
+        }
+    }
+
+    static StoredGroup readGroup(DataInputStream in) throws IOException {
+        StoredGroup group = new StoredGroup(in.readUTF());
+        int members = in.readInt();
+        for (int i = 0; i < members; i++) {
+            StoredMember member = new StoredMember(in.readUTF(), in.readUTF(), State.values()[in.readByte()]);
+            member.setMute(in.readLong(), readNullable(in));
+            group.getMembers().put(member.getUsername(), member);
+        }
+        return group;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
+
+// Stored state of a group
+class StoredGroup {
+    private String groupname;
+    private LinkedHashMap<String, StoredMember> members = new LinkedHashMap<>(); // Admin first
+
+    public StoredGroup(String groupname) {
+        this.groupname = groupname;
+    }
+
+    public String getGroupname() {
+        return groupname;
+    }
+
+    public LinkedHashMap<String, StoredMember> getMembers() {
+        return members;
+    }
+
+    public StoredGroup copy() {
+        StoredGroup copy = new StoredGroup(groupname);
+        for (StoredMember member : members.values()) {
+            StoredMember memberCopy = new StoredMember(member.getUsername(), member.getActorPath(), member.getState());
+            memberCopy.setMute(member.getMuteDeadline(), member.getMutedBy());
+            copy.getMembers().put(member.getUsername(), memberCopy);
+        }
+        return copy;
+    }
+}
+
+// Stored state of a group member
+class StoredMember {
+    private String username;
+    private String actorPath; // Serialized path of the member's communication actor
+    private State state;
+    private long muteDeadline = 0; // Time the mute ends in epoch milliseconds, 0 if not muted
+    private String mutedBy;
+
+    public StoredMember(String username, String actorPath, State state) {
+        this.username = username;
+        this.actorPath = actorPath;
+        this.state = state;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getActorPath() {
+        return actorPath;
+    }
+
+    public void setActorPath(String actorPath) {
+        this.actorPath = actorPath;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public long getMuteDeadline() {
+        return muteDeadline;
+    }
+
+    public String getMutedBy() {
+        return mutedBy;
+    }
+
+    public void setMute(long muteDeadline, String mutedBy) {
+        this.muteDeadline = muteDeadline;
+        this.mutedBy = mutedBy;
+    }
+}
@@ -0,0 +1,52 @@
+import akka.actor.Address;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Consistent hash ring of the server nodes, each node owns many points so keys move evenly when nodes change
+public class HashRing {
+    private static final int POINTS_PER_NODE = 128;
+
+    private TreeMap<Long, Address> points = new TreeMap<>();
+    private HashSet<Address> nodes = new HashSet<>();
+
+    public void add(Address node) {
+        if (!nodes.add(node))
+            return;
+        for (int i = 0; i < POINTS_PER_NODE; i++)
+            points.put(hash(node + "#" + i), node);
+    }
+
+    public void remove(Address node) {
+        if (nodes.remove(node))
+            points.values().removeIf(node::equals);
+    }
+
+    public Set<Address> getNodes() {
+        return nodes;
+    }
+
+    // Node owning key, null if the ring is empty
+    public Address owner(String key) {
+        if (points.isEmpty())
+            return null;
+        Map.Entry<Long, Address> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    // 64 bit FNV-1a, mixed so that similar keys spread over the ring
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,437 @@
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// Messages of offline users, kept in append only segment files until the users connect
+public class Mailbox extends AbstractActorWithTimers {
+    private static final byte MESSAGE = 0; // Record of a message waiting for its recipient
+    private static final byte DRAINED = 1; // Record of a recipient having received its messages
+
+    private Path directory; // Segment files, named by their sequence number
+    private Path usersFile; // Users who have ever connected, one per line
+    private long segmentSize; // Size of a segment before a new one is started
+    private Duration retention; // Messages older than this are dropped
+    private Duration compactionInterval; // Time between two removals of expired messages and unused segments
+    private Duration commitDelay; // Time a message may wait for others before being written
+    private long commitSize; // Bytes written at once without waiting any longer
+    private int drainSize; // Messages delivered together when a user connects
+    private MessageSerializer serializer;
+
+    private HashSet<String> users = new HashSet<>();
+    // Messages waiting for each recipient, oldest first
+    private HashMap<String, ArrayList<MailboxEntry>> mailboxes = new HashMap<>();
+    private ArrayList<MailboxSegment> segments = new ArrayList<>(); // Oldest first, the last one is written
+    // Records and senders waiting for the next commit
+    private ArrayList<ByteBuffer> pendingRecords = new ArrayList<>();
+    private ArrayList<ActorRef> pendingSenders = new ArrayList<>();
+    private long pendingSize = 0;
+
+    public Mailbox() {
+        Config config = context().system().settings().config().getConfig("chat.mailbox");
+        directory = Paths.get(config.getString("directory")).toAbsolutePath();
+        usersFile = directory.resolve("users");
+        segmentSize = config.getBytes("segment-size");
+        retention = config.getDuration("retention");
+        compactionInterval = config.getDuration("compaction-interval");
+        commitDelay = config.getDuration("commit-delay");
+        commitSize = config.getBytes("commit-size");
+        drainSize = config.getInt("drain-size");
+        serializer = new MessageSerializer((ExtendedActorSystem) context().system());
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        Files.createDirectories(directory);
+        if (Files.exists(usersFile)) {
+            for (String username : Files.readAllLines(usersFile, StandardCharsets.UTF_8)) {
+                if (!username.isEmpty())
+                    users.add(username);
+            }
+        }
+        recover();
+        getTimers().startPeriodicTimer("compact", new CompactMailbox(), compactionInterval);
+    }
+
+    @Override
+    public void postStop() {
+        commit();
+        for (MailboxSegment segment : segments)
+            segment.close();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(Enqueue.class, this::handleEnqueue)
+                .match(DrainMailbox.class, this::handleDrain)
+                .match(CommitMailbox.class, msg -> commit())
+                .match(CompactMailbox.class, msg -> compact())
+                .build();
+    }
+
+    // Rebuild mailboxes from the segments, the last segment is reopened for writing
+    private void recover() throws IOException {
+        ArrayList<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path path : stream)
+                paths.add(path);
+        }
+        paths.sort(null); // Names are zero padded sequence numbers
+
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        for (Path path : paths) {
+            MailboxSegment segment = new MailboxSegment(path);
+            segments.add(segment);
+            ByteBuffer buffer = segment.read();
+            long valid = 0;
+            while (buffer.remaining() >= 4) {
+                int position = buffer.position();
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining())
+                    break; // Record cut by a crash
+                byte type = buffer.get();
+                long timestamp = buffer.getLong();
+                String recipient = readString(buffer);
+                if (type == MESSAGE && timestamp >= cutoff)
+                    addEntry(recipient, new MailboxEntry(segment, position, timestamp));
+                else if (type == DRAINED)
+                    releaseAll(mailboxes.remove(recipient));
+                buffer.position(position + 4 + length);
+                valid = buffer.position();
+            }
+            segment.truncate(valid);
+        }
+        if (segments.isEmpty())
+            segments.add(new MailboxSegment(directory.resolve(segmentName(0))));
+    }
+
+    private void handleEnqueue(Enqueue msg) {
+        String recipient = msg.getRecipient();
+        if (!users.contains(recipient)) { // Recipient has never connected
+            sender().tell(ServerMetrics.failure(Reason.TARGET, null), self());
+            return;
+        }
+
+        Data data = msg.getData();
+        long timestamp = System.currentTimeMillis();
+        ByteBuffer record = record(MESSAGE, timestamp, recipient, serializer.manifest(data), serializer.toBinary(data));
+        MailboxSegment segment = append(record);
+        addEntry(recipient, new MailboxEntry(segment, segment.getSize() + pendingSize - record.remaining(), timestamp));
+        // Sender is acknowledged once the message is on disk
+        pendingSenders.add(sender());
+        if (pendingSize >= commitSize)
+            commit();
+    }
+
+    // Deliver the messages of a connected user in batches and forget them
+    private void handleDrain(DrainMailbox msg) {
+        String username = msg.getUsername();
+        if (users.add(username)) { // First connection of the user
+            try {
+                Files.write(usersFile, (username + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("Error in saving " + username);
+            }
+        }
+
+        ArrayList<MailboxEntry> entries = mailboxes.remove(username);
+        if (entries == null)
+            return;
+        commit(); // Messages may still wait for their commit
+
+        ArrayList<Data> batch = new ArrayList<>();
+        for (MailboxEntry entry : entries) {
+            entry.getSegment().release();
+            try {
+                batch.add(readMessage(entry));
+            } catch (Exception e) {
+                System.out.println("Error in reading a message of " + username);
+                continue;
+            }
+            if (batch.size() >= drainSize) {
+                msg.getCommunicationActor().tell(new DataBatch(username, batch), self());
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty())
+            msg.getCommunicationActor().tell(new DataBatch(username, batch), self());
+
+        // Messages are not delivered again after a restart
+        append(record(DRAINED, System.currentTimeMillis(), username, null, null));
+    }
+
+    // Add record to the next commit, a new segment is started when the current one is full
+    private MailboxSegment append(ByteBuffer record) {
+        MailboxSegment segment = segments.get(segments.size() - 1);
+        if (segment.getSize() + pendingSize + record.remaining() > segmentSize && segment.getSize() + pendingSize > 0) {
+            commit();
+            segment = new MailboxSegment(directory.resolve(segmentName(segment.getSequence() + 1)));
+            segments.add(segment);
+        }
+        if (pendingRecords.isEmpty())
+            getTimers().startSingleTimer("commit", new CommitMailbox(), commitDelay);
+        pendingRecords.add(record);
+        pendingSize += record.remaining();
+        return segment;
+    }
+
+    // Write every pending record with a single flush to disk, then acknowledge their senders
+    private void commit() {
+        getTimers().cancel("commit");
+        if (pendingRecords.isEmpty())
+            return;
+
+        Response response = new Success();
+        try {
+            segments.get(segments.size() - 1).write(pendingRecords.toArray(new ByteBuffer[0]));
+        } catch (IOException e) {
+            System.out.println("Error in writing mailbox: " + e.getMessage());
+            response = ServerMetrics.failure(null, null);
+        }
+        for (ActorRef sender : pendingSenders)
+            sender.tell(response, self());
+        pendingRecords.clear();
+        pendingSenders.clear();
+        pendingSize = 0;
+    }
+
+    // Drop expired messages and delete the oldest segments once nothing in them is needed
+    private void compact() {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        mailboxes.values().removeIf(entries -> {
+            int expired = 0;
+            while (expired < entries.size() && entries.get(expired).getTimestamp() < cutoff)
+                entries.get(expired++).getSegment().release();
+            entries.subList(0, expired).clear();
+            return entries.isEmpty();
+        });
+
+        // Only a prefix is deleted, a drained record must outlive the messages it refers to
+        while (segments.size() > 1 && segments.get(0).getLive() == 0) {
+            MailboxSegment segment = segments.remove(0);
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.getPath());
+            } catch (IOException e) {
+                System.out.println("Error in deleting " + segment.getPath());
+            }
+        }
+    }
+
+    private void addEntry(String recipient, MailboxEntry entry) {
+        mailboxes.computeIfAbsent(recipient, k -> new ArrayList<>()).add(entry);
+        entry.getSegment().retain();
+    }
+
+    private void releaseAll(List<MailboxEntry> entries) {
+        if (entries == null)
+            return;
+        for (MailboxEntry entry : entries)
+            entry.getSegment().release();
+    }
+
+    private Data readMessage(MailboxEntry entry) throws IOException {
+        ByteBuffer buffer = entry.getSegment().read();
+        buffer.position(entry.getPosition() + 4 + 1 + 8); // Skip length, type and timestamp
+        readString(buffer); // Recipient
+        String manifest = readString(buffer);
+        byte[] payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+        return (Data) serializer.fromBinary(payload, manifest);
+    }
+
+    // Record layout: length, type, timestamp, recipient, manifest and payload
+    private static ByteBuffer record(byte type, long timestamp, String recipient, String manifest, byte[] payload) {
+        byte[] recipientBytes = recipient.getBytes(StandardCharsets.UTF_8);
+        byte[] manifestBytes = manifest == null ? new byte[0] : manifest.getBytes(StandardCharsets.UTF_8);
+        if (payload == null)
+            payload = new byte[0];
+        int length = 1 + 8 + 4 + recipientBytes.length + 4 + manifestBytes.length + 4 + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length).put(type).putLong(timestamp);
+        record.putInt(recipientBytes.length).put(recipientBytes);
+        record.putInt(manifestBytes.length).put(manifestBytes);
+        record.putInt(payload.length).put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String segmentName(long sequence) {
+        return String.format("%020d.log", sequence);
+    }
+}
+
+// Segment file of the mailbox log
+class MailboxSegment {
+    private Path path;
+    private long sequence;
+    private FileChannel channel;
+    private long size; // Bytes written to disk
+    private int live = 0; // Messages in the segment still waiting for their recipient
+    private MappedByteBuffer map = null; // Read only view of the written bytes
+
+    public MailboxSegment(Path path) {
+        this.path = path;
+        this.sequence = Long.parseLong(path.getFileName().toString().replace(".log", ""));
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open " + path, e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getLive() {
+        return live;
+    }
+
+    public void retain() {
+        live++;
+    }
+
+    public void release() {
+        live--;
+    }
+
+    // Append records and flush them to disk
+    public void write(ByteBuffer[] records) throws IOException {
+        channel.position(size);
+        long remaining = 0;
+        for (ByteBuffer record : records)
+            remaining += record.remaining();
+        while (remaining > 0)
+            remaining -= channel.write(records);
+        channel.force(false);
+        size = channel.position();
+    }
+
+    // Memory mapped view of the written bytes, mapped again once the segment has grown
+    public ByteBuffer read() throws IOException {
+        if (map == null || map.capacity() < size)
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return map.duplicate();
+    }
+
+    // Drop a record cut by a crash
+    public void truncate(long validSize) throws IOException {
+        if (validSize >= size)
+            return;
+        map = null;
+        channel.truncate(validSize);
+        size = validSize;
+    }
+
+    public void close() {
+        map = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
+
+// Position of a message in the mailbox log
+class MailboxEntry {
+    private MailboxSegment segment;
+    private int position;
+    private long timestamp; // Time the message has been queued
+
+    public MailboxEntry(MailboxSegment segment, long position, long timestamp) {
+        this.segment = segment;
+        this.position = (int) position;
+        this.timestamp = timestamp;
+    }
+
+    public MailboxSegment getSegment() {
+        return segment;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
+
+// Message for a user who is not online, the sender is answered once it is on disk
+class Enqueue {
+    private String recipient;
+    private Data data;
+
+    public Enqueue(String recipient, Data data) {
+        this.recipient = recipient;
+        this.data = data;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public Data getData() {
+        return data;
+    }
+}
+
+// Sent by the manager once a user has connected and asked for its messages
+class DrainMailbox {
+    private String username;
+    private ActorRef communicationActor;
+
+    public DrainMailbox(String username, ActorRef communicationActor) {
+        this.username = username;
+        this.communicationActor = communicationActor;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public ActorRef getCommunicationActor() {
+        return communicationActor;
+    }
+}
+
+// Timers of the mailbox to itself
+class CommitMailbox {
+}
+
+class CompactMailbox {
+}
@@ -1,295 +1,358 @@
-import akka.actor.AbstractActor;
-import akka.actor.Cancellable;
-import akka.actor.Scheduler;
-import akka.routing.ActorRefRoutee;
-import akka.routing.BroadcastRoutingLogic;
-import akka.routing.Routee;
-import akka.routing.Router;
-import scala.concurrent.duration.FiniteDuration;
-
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.Address;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.ClusterEvent;
+import com.typesafe.config.Config;
+
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-public class Manager extends AbstractActor {
+public class Manager extends AbstractActorWithTimers {
     // Map of users who connected to the server
     private HashMap<String, User> onlineUsers = new HashMap<>();
-    // Map of all the groups in the system
-    private HashMap<String, Group> groups = new HashMap<>();
-    // System scheduler object
-    private Scheduler scheduler = context().system().scheduler();
+    // Map of all the groups in the system and the actor owning each of them
+    private HashMap<String, ActorRef> groups = new HashMap<>();
+    // Groups of every user, kept up to date by the group actors
+    private HashMap<String, HashSet<String>> userGroups = new HashMap<>();
+    // Communication actors that looked up each user, told once the user disconnects
+    private HashMap<String, HashSet<ActorRef>> userLookups = new HashMap<>();
+    // Store of the files sent to groups
+    private ActorRef blobStore = getContext().actorOf(Props.create(BlobStore.class).withDispatcher("blob-store-dispatcher")
+            .withMailbox("metered-mailbox"), "blobs");
+    // Messages of users who are not online
+    private ActorRef mailbox = getContext().actorOf(Props.create(Mailbox.class).withDispatcher("mailbox-dispatcher")
+            .withMailbox("metered-mailbox"), "mailbox");
+    private ActorRef journal; // Keeps the group changes on disk
+    // Server nodes sharing the groups and users, empty when this is the only node
+    private HashRing ring = new HashRing();
+    private Address selfAddress; // Address of this node in the ring
+    private boolean clustered = context().system().settings().config().getBoolean("chat.cluster.enabled");
+    private long membershipCount = 0; // Entries of the groups of every user together
+    // Rate limit of the group messages of each user on this node, spent by the group actors
+    private UserRateLimit userLimit = new UserRateLimit(context().system().settings().config().getConfig("chat.rate-limits.user"));
+    private ProcessingTimes processingTimes = ServerMetrics.get().processingTimes("manager");
+
+    @Override
+    public void preStart() throws Exception {
+        // Recover groups stored before the restart
+        Config config = context().system().settings().config().getConfig("chat.group-store");
+        GroupStore store = new GroupStore(Paths.get(config.getString("directory")).toAbsolutePath());
+        HashMap<String, StoredGroup> stored = store.recover();
+        // Group actors get their own copy, the journal keeps changing the stored groups
+        ArrayList<StoredGroup> recovered = new ArrayList<>();
+        for (StoredGroup group : stored.values())
+            recovered.add(group.copy());
+        journal = getContext().actorOf(Props.create(GroupJournal.class, store, stored)
+                .withDispatcher("group-store-dispatcher").withMailbox("metered-mailbox"), "journal");
+
+        for (StoredGroup group : recovered)
+            startGroup(group, false);
+
+        // Follow the server nodes joining and leaving the cluster
+        if (clustered) {
+            Cluster cluster = Cluster.get(context().system());
+            selfAddress = cluster.selfAddress();
+            cluster.subscribe(self(), ClusterEvent.initialStateAsEvents(),
+                    ClusterEvent.MemberUp.class, ClusterEvent.MemberRemoved.class);
+        }
+        getTimers().startPeriodicTimer("gauges", new PublishGauges(), Duration.ofSeconds(1));
+    }
+
+    @Override
+    public void postStop() {
+        if (clustered)
+            Cluster.get(context().system()).unsubscribe(self());
+    }
+
+    // Create the actor of a stored group, adopted groups are written to this node's store
+    private void startGroup(StoredGroup group, boolean adopted) {
+        groups.put(group.getGroupname(), getContext().actorOf(Props.create(GroupActor.class, group, journal, userLimit, adopted)
+                .withMailbox("group-mailbox")));
+        for (String username : group.getMembers().keySet())
+            indexMembership(username, group.getGroupname());
+    }
 
     @Override
     public Receive createReceive() {
-        return receiveBuilder().match(Connect.class, this::handleConnect)
-                .match(Disconnect.class, this::handleDisconnect)
-                .match(UserCommand.class, this::handleUserCommand)
-                .match(CreateGroup.class, this::handleCreateGroup)
-                .match(LeaveGroup.class, this::handleLeaveGroup)
-                .match(Data.class, this::handleGroupData)
-                .match(Inviter.class, this::handleInviter)
-                .match(GroupAdd.class, this::handleGroupAdd)
-                .match(GroupRemove.class, this::handleGroupRemove)
-                .match(CoAdminGroupCommand.class, this::handleCoAdminGroupCommand)
-                .match(MuteMember.class, this::handleMuteMember)
-                .match(UnmuteMember.class, this::handleUnmuteMember)
+        // Users are handled by the node owning their username, groups by the node owning their name
+        return receiveBuilder().match(Connect.class, cmd -> route(cmd.getUser().getUsername(), cmd, this::handleConnect))
+                .match(Disconnect.class, cmd -> route(cmd.getUsername(), cmd, this::handleDisconnect))
+                .match(FetchMailbox.class, cmd -> route(cmd.getUsername(), cmd, this::handleFetchMailbox))
+                .match(PauseDelivery.class, cmd -> route(cmd.getUsername(), cmd, this::handlePauseDelivery))
+                .match(UserCommand.class, cmd -> handle(cmd, this::handleUserCommand))
+                .match(CreateGroup.class, cmd -> route(cmd.getGroupname(), cmd, this::handleCreateGroup))
+                .match(LeaveGroup.class, cmd -> route(cmd.getGroupname(), cmd, this::handleLeaveGroup))
+                .match(GroupFile.class, cmd -> route(cmd.getGroupname(), cmd, this::handleGroupFile))
+                .match(Data.class, data -> route(data.getTarget(), data, this::handleGroupData))
+                .match(Inviter.class, cmd -> route(cmd.getGroupname(), cmd, c -> handleTargetedCommand(c, c.getTarget())))
+                .match(GroupAdd.class, cmd -> route(cmd.getGroupname(), cmd, this::handleGroupAdd))
+                .match(GroupRemove.class, cmd -> route(cmd.getGroupname(), cmd, c -> handleTargetedCommand(c, c.getTarget())))
+                .match(CoAdminGroupCommand.class, cmd -> route(cmd.getGroupname(), cmd, c -> handleTargetedCommand(c, c.getTarget())))
+                .match(MuteCommand.class, cmd -> route(cmd.getGroupname(), cmd, c -> handleTargetedCommand(c, c.getTarget())))
+                .match(GroupClosed.class, this::handleGroupClosed)
+                .match(MembershipChanged.class, this::handleMembershipChanged)
+                .match(UserJoined.class, msg -> userConnected(msg.getUser()))
+                .match(UserLeft.class, msg -> userDisconnected(msg.getUsername()))
+                .match(DeliveryPaused.class, msg -> pauseDelivery(msg.getUsername(), msg.isPaused()))
+                .match(GroupHandedOff.class, this::handleGroupHandedOff)
+                .match(AdoptGroup.class, msg -> route(msg.getGroup().getGroupname(), msg, this::handleAdoptGroup))
+                .match(ClusterEvent.MemberUp.class, msg -> handleNodeUp(msg.member().address()))
+                .match(ClusterEvent.MemberRemoved.class, msg -> handleNodeRemoved(msg.member().address()))
+                .match(PublishGauges.class, msg -> ServerMetrics.get().setGauges(onlineUsers.size(), groups.size(), membershipCount))
                 .build();
     }
 
-    // Verify group exists
-    private boolean validateGroupExists(String groupname) {
-        if (!groups.containsKey(groupname)) {
-            sender().tell(new Failure(Reason.GROUPNAME, null), self());
-            return false;
-        }
-        return true;
+    // Handle message if this node owns its key, otherwise forward it to the owner which replies to the original sender
+    private <T> void route(String key, T msg, Consumer<T> handler) {
+        Address owner = ring.owner(key);
+        if (owner == null || owner.equals(selfAddress))
+            handle(msg, handler);
+        else
+            managerAt(owner).forward(msg, getContext());
     }
 
-    // Verify target user exists
-    private boolean validateTargetExists(String target) {
-        if (!onlineUsers.containsKey(target)) {
-            sender().tell(new Failure(Reason.TARGET, null), self());
-            return false;
-        }
-        return true;
+    // Handle message owned by this node, counted and timed in the server metrics
+    private <T> void handle(T msg, Consumer<T> handler) {
+        ServerMetrics.get().command(msg);
+        processingTimes.time(msg.getClass(), msg, handler);
     }
 
-    // Verify source exists and have required privileges
-    private boolean validateSourcePrivileges(Group group, String source) {
-        if (!group.isMember(source) ||
-                !(group.isMemberState(source, State.ADMIN) || group.isMemberState(source, State.COADMIN))) {
-            sender().tell(new Failure(Reason.SOURCE, null), self());
-            return false;
+    private boolean isOwner(String key) {
+        Address owner = ring.owner(key);
+        return owner == null || owner.equals(selfAddress);
+    }
+
+    private ActorSelection managerAt(Address node) {
+        return context().actorSelection(node + "/user/Manager");
+    }
+
+    // Tell every other node
+    private void publish(Object msg) {
+        for (Address node : ring.getNodes()) {
+            if (!node.equals(selfAddress))
+                managerAt(node).tell(msg, self());
         }
-        return true;
     }
 
-    // Verify user is a member of group
-    private boolean validateMembership(Group group, String username) {
-        if (!group.isMember(username)) {
-            sender().tell(new Failure(Reason.NOTINGROUP, null), self());
-            return false;
+    private void handleNodeUp(Address node) {
+        if (ring.getNodes().contains(node))
+            return;
+        // Users registered by this node so far are known by the new node too
+        ArrayList<User> owned = new ArrayList<>();
+        for (User user : onlineUsers.values()) {
+            if (isOwner(user.getUsername()))
+                owned.add(user);
         }
-        return true;
+        ring.add(node);
+        if (!node.equals(selfAddress)) {
+            for (User user : owned)
+                managerAt(node).tell(new UserJoined(user), self());
+        }
+        rebalance();
     }
 
-    // Verify user is not a member of group
-    private boolean validateNonMembership(Group group, String username) {
-        if (group.isMember(username)) {
-            sender().tell(new Failure(Reason.INGROUP, null), self());
-            return false;
+    private void handleNodeRemoved(Address node) {
+        ring.remove(node);
+        rebalance();
+    }
+
+    // Hand every group this node does not own anymore to its new owner
+    private void rebalance() {
+        for (Map.Entry<String, ActorRef> group : new ArrayList<>(groups.entrySet())) {
+            if (isOwner(group.getKey()))
+                continue;
+            groups.remove(group.getKey());
+            group.getValue().tell(new HandOffGroup(), self());
         }
-        return true;
     }
 
-    // Verify user is not an admin of a group
-    private boolean validateAdminOperations(Group group, String username) {
-        if (group.isMemberState(username, State.ADMIN)) {
-            sender().tell(new Failure(Reason.FORBIDDEN, null), self());
-            return false;
+    private void handleGroupHandedOff(GroupHandedOff msg) {
+        StoredGroup group = msg.getGroup();
+        for (String username : group.getMembers().keySet())
+            unindexMembership(username, group.getGroupname());
+        route(group.getGroupname(), new AdoptGroup(group), this::handleAdoptGroup);
+    }
+
+    private void handleAdoptGroup(AdoptGroup msg) {
+        if (groups.containsKey(msg.getGroup().getGroupname())) {
+            System.out.println(msg.getGroup().getGroupname() + " already exists, handed off copy is dropped");
+            return;
         }
-        return true;
+        startGroup(msg.getGroup(), true);
     }
 
-    // Verify user is muted in group
-    private boolean validateMuted(Group group, String username) {
-        if (!group.isMemberState(username, State.MUTE)) {
-            sender().tell(new Failure(Reason.NOTMUTED, null), self());
+    // Verify group exists
+    private boolean validateGroupExists(String groupname) {
+        if (!groups.containsKey(groupname)) {
+            sender().tell(ServerMetrics.failure(Reason.GROUPNAME, null), self());
             return false;
         }
         return true;
     }
 
-    // Verify source is a member of the group
-    private boolean validateSourceMembership(Group group, String source) {
-        if (!group.isMember(source)) {
-            sender().tell(new Failure(Reason.SOURCE, null), self());
+    // Verify target user exists
+    private boolean validateTargetExists(String target) {
+        if (!onlineUsers.containsKey(target)) {
+            sender().tell(ServerMetrics.failure(Reason.TARGET, null), self());
             return false;
         }
         return true;
     }
 
-    // Validations used frequently
-    private boolean commonValidations(Group group, String groupname, String source, String target) {
-        return (validateGroupExists(groupname) &&
-                validateTargetExists(target) &&
-                validateSourcePrivileges(group, source) &&
-                validateMembership(group, target) &&
-                validateAdminOperations(group, target));
-    }
-
-    private void handleUnmuteMember(UnmuteMember cmd) {
+    // Validate group and target, then let the group actor handle the command
+    private void handleTargetedCommand(GroupCommand cmd, String target) {
         // Validations
-        Group group = groups.get(cmd.getGroupname());
-
-        if (!commonValidations(group, cmd.getGroupname(), cmd.getSource(), cmd.getTarget()) &&
-                validateMuted(group, cmd.getTarget()))
+        if (!(validateGroupExists(cmd.getGroupname()) &&
+                validateTargetExists(target)))
             return;
 
-        // Unmute target user in group
-        group.unmuteMember(cmd.getTarget());
-        // Notify sender about success
-        sender().tell(new Success(onlineUsers.get(cmd.getTarget())), self());
+        // Forward command to group, the group replies to the original sender
+        groups.get(cmd.getGroupname()).forward(new GroupRequest(cmd, onlineUsers.get(target)), getContext());
     }
 
-    private void handleMuteMember(MuteMember cmd) {
+    private void handleGroupAdd(GroupAdd cmd) {
         // Validations
-        Group group = groups.get(cmd.getGroupname());
-        if (!commonValidations(group, cmd.getGroupname(), cmd.getSource(), cmd.getTarget()))
+        if (!onlineUsers.containsKey(cmd.getTarget()) || !groups.containsKey(cmd.getGroupname())) {
+            ServerMetrics.get().dropped(cmd); // Target went offline or group closed since the invite
             return;
+        }
 
-        // Schedule unmuting of user after a period of time
-        Cancellable cancel = scheduler.scheduleOnce(
-                FiniteDuration.apply(cmd.getDuration(), TimeUnit.MILLISECONDS),
-                () -> {
-                    group.unmuteMember(cmd.getTarget()); // Unmute user in group
-                    // Inform user about unmuting
-                    onlineUsers.get(cmd.getTarget()).getCommunicationActor().tell(
-                            new TextData(cmd.getSource(), cmd.getGroupname(),
-                                    "You have been unmuted! Muting time is up!"), self());
-                },
-                context().system().dispatcher());
-
-        // Mute user in group
-        group.muteMember(cmd.getTarget(), cmd.getDuration(), cancel);
-        // Notify sender about success
-        sender().tell(new Success(onlineUsers.get(cmd.getTarget())), self());
+        // Add user to group members
+        groups.get(cmd.getGroupname()).forward(new GroupRequest(cmd, onlineUsers.get(cmd.getTarget())), getContext());
     }
 
-    private void handleCoAdminGroupCommand(CoAdminGroupCommand cmd) {
+    private void handleGroupData(Data data) {
         // Validations
-        Group group = groups.get(cmd.getGroupname());
-        if (!commonValidations(group, cmd.getGroupname(), cmd.getSource(), cmd.getTarget()))
+        if (!validateGroupExists(data.getTarget()))
             return;
 
-        User user = onlineUsers.get(cmd.getTarget());
-        // Notify sender about success
-        sender().tell(new Success(user), self());
+        // Let the group validate and broadcast the message
+        groups.get(data.getTarget()).forward(trustedStore(data), getContext());
+    }
 
-        // Determine desired new state
-        State state = State.COADMIN;
-        if (cmd instanceof CoAdminRemove)
-            state = State.USER;
+    // File offers come from the client, only the blob store of a server node may be offered to the members
+    private Data trustedStore(Data data) {
+        if (!(data instanceof FileOffer) || isBlobStore(((FileOffer) data).getStore()))
+            return data;
+        FileOffer offer = (FileOffer) data;
+        return new FileOffer(offer.getSource(), offer.getTarget(), offer.getData(), offer.getFilename(),
+                offer.getSize(), blobStore);
+    }
 
-        // Set new member state
-        group.setMemberState(user.getUsername(), state);
+    private boolean isBlobStore(ActorRef store) {
+        if (store == null)
+            return false;
+        if (store.equals(blobStore))
+            return true;
+        // Store of another node, clients upload to the node they are connected to
+        return ring.getNodes().contains(store.path().address())
+                && store.path().toStringWithoutAddress().equals(blobStore.path().toStringWithoutAddress());
     }
 
-    private void handleGroupRemove(GroupRemove cmd) {
+    private void handleGroupFile(GroupFile cmd) {
         // Validations
-        Group group = groups.get(cmd.getGroupname());
-
-        if (!commonValidations(group, cmd.getGroupname(), cmd.getSource(), cmd.getTarget()))
+        if (!validateGroupExists(cmd.getGroupname()))
             return;
 
-        User user = onlineUsers.get(cmd.getTarget());
-        // Notify sender about success
-        sender().tell(new Success(user), self());
-        group.removeMember(user); //Remove user from group
+        // Let the group verify the source may send the file before it is uploaded
+        groups.get(cmd.getGroupname()).forward(new GroupRequest(cmd, onlineUsers.get(cmd.getSource())), getContext());
     }
 
-    private void handleGroupAdd(GroupAdd cmd) {
+    private void handleLeaveGroup(LeaveGroup cmd) {
         // Validations
-        if (!onlineUsers.containsKey(cmd.getTarget()) || !groups.containsKey(cmd.getGroupname())) {
-            System.out.println("adding to group failed");
+        if (!validateGroupExists(cmd.getGroupname()))
+            return;
+
+        User user = onlineUsers.get(cmd.getUsername());
+        if (user == null) {
+            sender().tell(ServerMetrics.failure(Reason.SOURCE, null), self());
             return;
         }
 
-        User user = onlineUsers.get(cmd.getTarget());
-        Group group = groups.get(cmd.getGroupname());
-        // Add user to group members
-        group.addMember(user, State.USER);
+        // Let the group validate membership and remove the user
+        groups.get(cmd.getGroupname()).forward(new GroupRequest(cmd, user), getContext());
     }
 
-    private void handleInviter(Inviter cmd) {
-        // Validations
-        Group group = groups.get(cmd.getGroupname());
-
-        if (!(validateGroupExists(cmd.getGroupname()) &&
-                validateTargetExists(cmd.getTarget()) &&
-                validateSourcePrivileges(group, cmd.getSource()) &&
-                validateNonMembership(group, cmd.getTarget())))
-            return;
+    private void handleGroupClosed(GroupClosed msg) {
+        // Remove group and stop its actor once it has rejected the requests already forwarded to it
+        if (sender().equals(groups.get(msg.getGroupname())))
+            groups.remove(msg.getGroupname());
+        sender().tell(PoisonPill.getInstance(), self());
 
-        // Notify sender about success
-        sender().tell(new Success(onlineUsers.get(cmd.getTarget())), self());
+        // Remove group from its members index
+        for (String username : msg.getMembers())
+            unindexMembership(username, msg.getGroupname());
     }
 
-    private void handleGroupData(Data data) {
-        // Validations
-        if (!validateGroupExists(data.getTarget()))
-            return;
-
-        Group group = groups.get(data.getTarget());
-        if (!validateSourceMembership(group, data.getSource())) {
+    private void handleMembershipChanged(MembershipChanged msg) {
+        User user = msg.getUser();
+        if (!msg.isJoined()) {
+            unindexMembership(user.getUsername(), msg.getGroupname());
             return;
         }
 
-        // Verify source is not muted
-        if (group.isMemberState(data.getSource(), State.MUTE)) {
-            sender().tell(new Failure(Reason.MUTED, group.getMuteDuration(data.getSource()).toString()), self());
+        // User has disconnected before the group added it, make the group drop it
+        if (!user.getCommunicationActor().equals(onlineUserActor(user.getUsername()))) {
+            sender().tell(new MemberDisconnected(user), self());
             return;
         }
+        indexMembership(user.getUsername(), msg.getGroupname());
+    }
 
-        // Notify sender about success
-        sender().tell(new Success(), self());
-        // Broadcast message to group members
-        group.getRouter().route(data, sender());
+    // Groups of every user, as indexed so far
+    HashMap<String, HashSet<String>> getUserGroups() {
+        return userGroups;
     }
 
-    private void handleLeaveGroup(LeaveGroup cmd) {
-        // Validations
-        if (!validateGroupExists(cmd.getGroupname()))
-            return;
+    // Communication actor of an online user, null if the user is offline
+    private ActorRef onlineUserActor(String username) {
+        User user = onlineUsers.get(username);
+        return user == null ? null : user.getCommunicationActor();
+    }
 
-        Group group = groups.get(cmd.getGroupname());
-        if (!validateSourceMembership(group, cmd.getUsername())) {
-            return;
-        }
+    // Add group to the groups of user
+    private void indexMembership(String username, String groupname) {
+        if (userGroups.computeIfAbsent(username, k -> new HashSet<>()).add(groupname))
+            membershipCount++;
+    }
 
-        // Notify sender about success
-        sender().tell(new Success(), self());
-        // Leave group
-        leaveGroup(group, cmd.getUsername());
-    }
-
-    // Perform leave group operation for user
-    private void leaveGroup(Group group, String username) {
-        if (group.isMemberState(username, State.ADMIN)) { // Admin user
-            // Broadcast group closing message
-            group.getRouter().route(new TextData(username, group.groupname, group.getGroupname() + " admin has closed " + group.getGroupname() + "!"), self());
-            // Remove group
-            groups.remove(group.getGroupname());
-        } else { // Other user
-            User user = onlineUsers.get(username);
-            group.removeMember(user); // Remove user from group
-            // Broadcast message about member leaving group
-            group.getRouter().route(new TextData(username, group.groupname, username + " has left " + group.groupname + "!"), self());
-        }
+    // Remove group from the groups of user
+    private void unindexMembership(String username, String groupname) {
+        HashSet<String> memberships = userGroups.get(username);
+        if (memberships == null)
+            return;
+        if (memberships.remove(groupname))
+            membershipCount--;
+        if (memberships.isEmpty())
+            userGroups.remove(username);
     }
 
     private void handleCreateGroup(CreateGroup cmd) {
         // Validations
         if (groups.containsKey(cmd.getGroupname())) {
-            sender().tell(new Failure(), self());
+            sender().tell(ServerMetrics.failure(null, null), self());
             return;
 
         } else {
-            // Build routee list containing only creator
-            List<Routee> routees = new ArrayList<>();
             User user = onlineUsers.get(cmd.getCreator());
             if (user == null) {
-                System.out.println("creator is not online");
+                ServerMetrics.get().dropped(cmd);
                 return;
             }
-            routees.add(new ActorRefRoutee(user.getCommunicationActor()));
-            // Create router with broadcasting logic
-            Router router = new Router(new BroadcastRoutingLogic(), routees);
-            // Create new group
-            Group group = new Group(router, cmd.getGroupname(), cmd.getCreator());
+            // Create new group, owned by its own actor
+            ActorRef group = getContext().actorOf(Props.create(GroupActor.class, cmd.getGroupname(), user, journal, userLimit)
+                    .withMailbox("group-mailbox"));
             groups.put(cmd.getGroupname(), group);
+            indexMembership(user.getUsername(), cmd.getGroupname());
             // Notify sender about success
             sender().tell(new Success(), self());
         }
@@ -297,12 +360,49 @@ public class Manager extends AbstractActor {
 
     private void handleUserCommand(UserCommand cmd) {
         // Fetch user information
-        User user = onlineUsers.getOrDefault(cmd.getTarget(), new User(null, null));
-        if (user != null) // Success, nofity sender
+        User user = onlineUsers.get(cmd.getTarget());
+        if (user != null) { // Success, nofity sender
             sender().tell(new Success(user), self());
-        else { // Failure, user does not exist
-            sender().tell(new Failure(), self());
+            // Remember who may cache the user
+            User source = onlineUsers.get(cmd.getSource());
+            if (source != null)
+                userLookups.computeIfAbsent(user.getUsername(), k -> new HashSet<>()).add(source.getCommunicationActor());
+        } else if (cmd instanceof UserText) // Queue text until the user connects, the mailbox answers the sender
+            route(cmd.getTarget(), cmd, this::queueUserText);
+        else // Failure, user does not exist
+            sender().tell(ServerMetrics.failure(Reason.TARGET, null), self());
+    }
+
+    // Kept by the mailbox of the node owning the recipient
+    private void queueUserText(UserCommand cmd) {
+        mailbox.forward(new Enqueue(cmd.getTarget(), new TextData(cmd.getSource(), cmd.getTarget(), cmd.getData())), getContext());
+    }
+
+    private void handleFetchMailbox(FetchMailbox cmd) {
+        // Only the connected user may receive its messages
+        User user = onlineUsers.get(cmd.getUsername());
+        if (user != null && user.getCommunicationActor().equals(sender()))
+            mailbox.tell(new DrainMailbox(user.getUsername(), user.getCommunicationActor()), self());
+    }
+
+    private void handlePauseDelivery(PauseDelivery cmd) {
+        // Only the connected user may pause its deliveries
+        User user = onlineUsers.get(cmd.getUsername());
+        if (user == null || !user.getCommunicationActor().equals(sender()))
             return;
+        pauseDelivery(cmd.getUsername(), cmd.isPaused());
+        publish(new DeliveryPaused(cmd.getUsername(), cmd.isPaused()));
+    }
+
+    // Pause or resume group deliveries to user, on every node
+    private void pauseDelivery(String username, boolean paused) {
+        HashSet<String> memberships = userGroups.get(username);
+        if (memberships == null)
+            return;
+        for (String groupname : memberships) {
+            ActorRef group = groups.get(groupname);
+            if (group != null)
+                group.tell(new MemberPaused(username, paused), self());
         }
     }
 
@@ -310,32 +410,125 @@ public class Manager extends AbstractActor {
         User user = cmd.getUser();
         // Verify username is not used
         if (onlineUsers.containsKey(user.getUsername()))
-            sender().tell(new Failure(), self());
+            sender().tell(ServerMetrics.failure(null, null), self());
         else {
-            // Add new online user
-            onlineUsers.put(user.getUsername(), user);
+            userConnected(user);
+            publish(new UserJoined(user));
             // Notify sender about success
             sender().tell(new Success(), self());
         }
     }
 
+    // Add new online user, on every node
+    private void userConnected(User user) {
+        UserIds.get().intern(user.getUsername()); // Groups find the user by its id from now on
+        onlineUsers.put(user.getUsername(), user);
+        // Groups kept from before deliver to the user's current actor
+        HashSet<String> memberships = userGroups.get(user.getUsername());
+        if (memberships != null) {
+            for (String groupname : memberships) {
+                ActorRef group = groups.get(groupname);
+                if (group != null)
+                    group.tell(new MemberConnected(user), self());
+            }
+        }
+    }
+
     private void handleDisconnect(Disconnect cmd) {
-        ArrayList<Group> toLeave = new ArrayList<>(); // List of groups to leave
-        for (Map.Entry<String, Group> entry : groups.entrySet()) {
-            Group group = entry.getValue();
-            // If user is a member of the group, add it to list
-            if (group.isMember(cmd.getUsername())) {
-                toLeave.add(group);
+        userDisconnected(cmd.getUsername());
+        publish(new UserLeft(cmd.getUsername()));
+        // Notify sender about success
+        sender().tell(new Success(), self());
+    }
+
+    // Remove online user, on every node
+    private void userDisconnected(String username) {
+        User user = onlineUsers.get(username);
+        HashSet<String> memberships = userGroups.remove(username);
+        if (memberships != null)
+            membershipCount -= memberships.size(); // The groups no longer find the entries to remove
+        if (user != null && memberships != null) {
+            // Leave all groups of the user (close group if user is the admin)
+            for (String groupname : memberships) {
+                ActorRef group = groups.get(groupname);
+                if (group != null)
+                    group.tell(new MemberDisconnected(user), self());
             }
         }
 
-        // Leave all groups (close group if user is the admin)
-        for (Group group : toLeave)
-            leaveGroup(group, cmd.getUsername());
+        // Tell users who looked the user up to forget it
+        HashSet<ActorRef> lookups = userLookups.remove(username);
+        if (lookups != null) {
+            for (ActorRef lookup : lookups)
+                lookup.tell(new UserOffline(username), self());
+        }
+        // The user itself no longer needs to hear about the users it looked up
+        if (user != null)
+            userLookups.values().removeIf(lookers -> lookers.remove(user.getCommunicationActor()) && lookers.isEmpty());
 
         // Remove user from online users
-        onlineUsers.remove(cmd.getUsername());
-        // Notify sender about success
-        sender().tell(new Success(), self());
+        onlineUsers.remove(username);
+    }
+}
+
+// Sent by the node owning a username to the other nodes once the user has connected
+class UserJoined {
+    private User user;
+
+    public UserJoined(User user) {
+        this.user = user;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
+
+// Sent by the node owning a username to the other nodes once the user has disconnected
+class UserLeft {
+    private String username;
+
+    public UserLeft(String username) {
+        this.username = username;
     }
+
+    public String getUsername() {
+        return username;
+    }
+}
+
+// Sent by the node owning a username to the other nodes once the user's client has paused or resumed deliveries
+class DeliveryPaused {
+    private String username;
+    private boolean paused;
+
+    public DeliveryPaused(String username, boolean paused) {
+        this.username = username;
+        this.paused = paused;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+}
+
+// Group moved to the node now owning it
+class AdoptGroup {
+    private StoredGroup group;
+
+    public AdoptGroup(StoredGroup group) {
+        this.group = group;
+    }
+
+    public StoredGroup getGroup() {
+        return group;
+    }
+}
+
+// Timer of the manager publishing its gauges to the server metrics
+class PublishGauges {
 }
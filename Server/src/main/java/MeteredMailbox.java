@@ -0,0 +1,68 @@
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Unbounded mailbox reporting the messages waiting in it to the server metrics. Queues of the same label, or of
+// actors with the same name when there is no label, are reported together.
+public class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.MeteredQueue> {
+    private String label; // Name of the queues in the metrics, null to use the actor name
+
+    public MeteredMailbox(ActorSystem.Settings settings, Config config) {
+        label = config.hasPath("label") ? config.getString("label") : null;
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        String actor = label != null ? label : owner.isDefined() ? owner.get().path().name() : "unknown";
+        return new MeteredQueue(ServerMetrics.get().mailboxDepth(actor));
+    }
+
+    public static class MeteredQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        private LongAdder depth; // Shared by the queues reported together
+
+        public MeteredQueue(LongAdder depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            queue.offer(handle);
+            depth.increment();
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope handle = queue.poll();
+            if (handle != null)
+                depth.decrement();
+            return handle;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return queue.size();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Envelope handle;
+            while ((handle = dequeue()) != null)
+                deadLetters.enqueue(owner, handle);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import com.typesafe.config.Config;
+
+// Token bucket limit in the form of the generic cell rate algorithm: the state of a bucket is a single time, the
+// time at which the bucket would be full again. Buckets refill as time passes, so they need no timers.
+public class RateLimit {
+    private long interval; // Nanoseconds a message takes to be earned back, 0 when unlimited
+    private long tolerance; // Nanoseconds of messages allowed ahead of the rate, the burst
+    private long origin = System.nanoTime(); // Times are kept from here, so a zero state is a full bucket
+
+    public RateLimit(Config config) {
+        double rate = config.getDouble("rate");
+        if (rate > 0) {
+            interval = (long) (1e9 / rate);
+            tolerance = interval * Math.max(config.getInt("burst") - 1, 0);
+        }
+    }
+
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    public long now() {
+        return System.nanoTime() - origin;
+    }
+
+    // Nanoseconds until a message may pass a bucket in state, 0 if it may pass now
+    public long delay(long state, long now) {
+        return Math.max(0, Math.max(state, now) - now - tolerance);
+    }
+
+    // State of a bucket after a message has passed it
+    public long take(long state, long now) {
+        return Math.max(state, now) + interval;
+    }
+
+    // Delay in whole milliseconds, rounded up so a retry after it passes
+    public static long toRetryMillis(long delay) {
+        return (delay + 999999) / 1000000;
+    }
+}
@@ -1,11 +1,47 @@
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 public class ServerMain {
     public static void main(String[] args) {
+        Config config = ConfigFactory.load();
+        // Cluster node: ServerMain <port> [seed host:port...], the nodes share groups and users by consistent hashing
+        if (args.length > 0)
+            config = clusterConfig(args).withFallback(config);
         // Creating the system
-        ActorSystem system = ActorSystem.create("ChatSystem");
+        ActorSystem system = ActorSystem.create("ChatSystem", config);
         // Creating server manager
-        system.actorOf(Props.create(Manager.class), "Manager");
+        system.actorOf(Props.create(Manager.class).withMailbox("metered-mailbox"), "Manager");
+
+        // Expose server metrics
+        try {
+            ServerMetrics.get().start(config.getConfig("chat.metrics"));
+            system.registerOnTermination(ServerMetrics.get()::stop);
+        } catch (Exception e) {
+            System.out.println("Error in starting metrics: " + e.getMessage());
+        }
+    }
+
+    private static Config clusterConfig(String[] args) {
+        String port = args[0];
+        // A node without seeds starts a new cluster
+        StringBuilder seeds = new StringBuilder("\"akka://ChatSystem@127.0.0.1:" + port + "\"");
+        if (args.length > 1) {
+            seeds.setLength(0);
+            for (int i = 1; i < args.length; i++) {
+                String seed = args[i].contains(":") ? args[i] : "127.0.0.1:" + args[i];
+                seeds.append(i > 1 ? "," : "").append("\"akka://ChatSystem@").append(seed).append("\"");
+            }
+        }
+        return ConfigFactory.parseString("akka.actor.provider = cluster\n"
+                + "akka.remote.artery.canonical.port = " + port + "\n"
+                + "akka.cluster.seed-nodes = [" + seeds + "]\n"
+                + "chat.cluster.enabled = on\n"
+                // Nodes on the same host keep their files apart
+                + "chat.blob-store.directory = \"node-" + port + "/blobs\"\n"
+                + "chat.mailbox.directory = \"node-" + port + "/mailbox\"\n"
+                + "chat.group-store.directory = \"node-" + port + "/groups\"\n"
+                + "chat.metrics.http-port = 0\n");
     }
 }
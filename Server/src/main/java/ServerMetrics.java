@@ -0,0 +1,351 @@
+import com.sun.net.httpserver.HttpServer;
+import com.typesafe.config.Config;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Counters, processing times, mailbox depths and gauges of the server, exposed through JMX and over HTTP in the
+// Prometheus text format. Updated by the actors without locking.
+public class ServerMetrics {
+    private static final ServerMetrics instance = new ServerMetrics();
+
+    private ConcurrentHashMap<Class<?>, LongAdder> commands = new ConcurrentHashMap<>(); // Handled commands by type
+    private ConcurrentHashMap<Reason, LongAdder> failures = new ConcurrentHashMap<>(); // Failure replies by reason
+    private LongAdder failuresWithoutReason = new LongAdder();
+    private ConcurrentHashMap<Class<?>, LongAdder> dropped = new ConcurrentHashMap<>(); // Commands dropped without a reply
+    // Message processing times of every kind of actor, by message type
+    private ConcurrentHashMap<String, ProcessingTimes> processingTimes = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, LongAdder> mailboxDepths = new ConcurrentHashMap<>(); // Queued messages by actor
+    private volatile long onlineUsers = 0;
+    private volatile long groups = 0;
+    private volatile long memberships = 0; // Members of all groups together
+    private HttpServer httpServer;
+
+    public static ServerMetrics get() {
+        return instance;
+    }
+
+    public void command(Object cmd) {
+        counter(commands, cmd.getClass()).increment();
+    }
+
+    // Count command that is dropped without a reply, its sender learns of it only by timing out
+    public void dropped(Object cmd) {
+        counter(dropped, cmd.getClass()).increment();
+    }
+
+    // Count failure reply to send
+    public static Failure failure(Reason reason, String data) {
+        if (reason == null)
+            instance.failuresWithoutReason.increment();
+        else
+            counter(instance.failures, reason).increment();
+        return new Failure(reason, data);
+    }
+
+    public ProcessingTimes processingTimes(String actor) {
+        return processingTimes.computeIfAbsent(actor, k -> new ProcessingTimes());
+    }
+
+    public LongAdder mailboxDepth(String actor) {
+        return mailboxDepths.computeIfAbsent(actor, k -> new LongAdder());
+    }
+
+    public void setGauges(long onlineUsers, long groups, long memberships) {
+        this.onlineUsers = onlineUsers;
+        this.groups = groups;
+        this.memberships = memberships;
+    }
+
+    private static <K> LongAdder counter(ConcurrentHashMap<K, LongAdder> counters, K key) {
+        LongAdder counter = counters.get(key); // Lock free once the counter exists
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    // Register the JMX bean and start the HTTP endpoint, as configured under chat.metrics
+    public synchronized void start(Config config) throws Exception {
+        if (!config.getBoolean("enabled"))
+            return;
+
+        if (config.getBoolean("jmx")) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("chat:type=ServerMetrics");
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsBean(this), name);
+        }
+
+        if (httpServer == null) {
+            httpServer = HttpServer.create(new InetSocketAddress(config.getString("http-host"), config.getInt("http-port")), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            httpServer.start();
+            System.out.println("Metrics on http://" + config.getString("http-host") + ":"
+                    + httpServer.getAddress().getPort() + "/metrics");
+        }
+    }
+
+    public synchronized void stop() {
+        if (httpServer != null)
+            httpServer.stop(0);
+        httpServer = null;
+    }
+
+    // Every metric in the Prometheus text format
+    public String prometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP chat_commands_total Commands and messages handled by the manager.\n");
+        out.append("# TYPE chat_commands_total counter\n");
+        for (Map.Entry<String, Long> command : byName(commands).entrySet())
+            out.append("chat_commands_total{type=\"").append(command.getKey()).append("\"} ").append(command.getValue()).append('\n');
+
+        out.append("# HELP chat_failures_total Failure replies by reason.\n");
+        out.append("# TYPE chat_failures_total counter\n");
+        for (Map.Entry<String, Long> failure : failureCounts().entrySet())
+            out.append("chat_failures_total{reason=\"").append(failure.getKey()).append("\"} ").append(failure.getValue()).append('\n');
+
+        out.append("# HELP chat_dropped_total Commands dropped without a reply.\n");
+        out.append("# TYPE chat_dropped_total counter\n");
+        for (Map.Entry<String, Long> command : byName(dropped).entrySet())
+            out.append("chat_dropped_total{type=\"").append(command.getKey()).append("\"} ").append(command.getValue()).append('\n');
+
+        out.append("# HELP chat_processing_seconds Time taken to handle a message.\n");
+        out.append("# TYPE chat_processing_seconds histogram\n");
+        for (Map.Entry<String, ProcessingTimes> actor : new TreeMap<>(processingTimes).entrySet()) {
+            for (Map.Entry<String, Histogram> type : actor.getValue().byName().entrySet()) {
+                String labels = "actor=\"" + actor.getKey() + "\",type=\"" + type.getKey() + "\"";
+                Histogram histogram = type.getValue();
+                long cumulative = 0;
+                for (int i = 0; i < Histogram.BOUNDS.length; i++) {
+                    cumulative += histogram.getCount(i);
+                    out.append("chat_processing_seconds_bucket{").append(labels).append(",le=\"")
+                            .append(Histogram.BOUND_SECONDS[i]).append("\"} ").append(cumulative).append('\n');
+                }
+                cumulative += histogram.getCount(Histogram.BOUNDS.length);
+                out.append("chat_processing_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+                out.append("chat_processing_seconds_sum{").append(labels).append("} ").append(histogram.getSum() / 1e9).append('\n');
+                out.append("chat_processing_seconds_count{").append(labels).append("} ").append(cumulative).append('\n');
+            }
+        }
+
+        out.append("# HELP chat_mailbox_depth Messages waiting in the mailboxes of the actors.\n");
+        out.append("# TYPE chat_mailbox_depth gauge\n");
+        for (Map.Entry<String, LongAdder> depth : new TreeMap<>(mailboxDepths).entrySet())
+            out.append("chat_mailbox_depth{actor=\"").append(depth.getKey()).append("\"} ").append(depth.getValue().sum()).append('\n');
+
+        gauge(out, "chat_online_users", "Users online.", onlineUsers);
+        gauge(out, "chat_groups", "Groups owned by this node.", groups);
+        gauge(out, "chat_group_memberships", "Members of the groups owned by this node.", memberships);
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    // Every metric by JMX attribute name, histograms as count, mean and 99th percentile
+    public Map<String, Object> snapshot() {
+        LinkedHashMap<String, Object> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> command : byName(commands).entrySet())
+            snapshot.put("commands." + command.getKey(), command.getValue());
+        for (Map.Entry<String, Long> failure : failureCounts().entrySet())
+            snapshot.put("failures." + failure.getKey(), failure.getValue());
+        for (Map.Entry<String, Long> command : byName(dropped).entrySet())
+            snapshot.put("dropped." + command.getKey(), command.getValue());
+        for (Map.Entry<String, ProcessingTimes> actor : new TreeMap<>(processingTimes).entrySet()) {
+            for (Map.Entry<String, Histogram> type : actor.getValue().byName().entrySet()) {
+                String name = "processing." + actor.getKey() + "." + type.getKey();
+                snapshot.put(name + ".count", type.getValue().getTotal());
+                snapshot.put(name + ".meanMicros", type.getValue().getMean() / 1e3);
+                snapshot.put(name + ".p99Micros", type.getValue().percentile(0.99) / 1e3);
+            }
+        }
+        for (Map.Entry<String, LongAdder> depth : new TreeMap<>(mailboxDepths).entrySet())
+            snapshot.put("mailboxDepth." + depth.getKey(), depth.getValue().sum());
+        snapshot.put("onlineUsers", onlineUsers);
+        snapshot.put("groups", groups);
+        snapshot.put("groupMemberships", memberships);
+        return snapshot;
+    }
+
+    private static TreeMap<String, Long> byName(Map<Class<?>, LongAdder> counters) {
+        TreeMap<String, Long> sorted = new TreeMap<>();
+        for (Map.Entry<Class<?>, LongAdder> counter : counters.entrySet())
+            sorted.put(counter.getKey().getSimpleName(), counter.getValue().sum());
+        return sorted;
+    }
+
+    private TreeMap<String, Long> failureCounts() {
+        TreeMap<String, Long> sorted = new TreeMap<>();
+        for (Map.Entry<Reason, LongAdder> failure : failures.entrySet())
+            sorted.put(failure.getKey().name(), failure.getValue().sum());
+        if (failuresWithoutReason.sum() > 0)
+            sorted.put("NONE", failuresWithoutReason.sum());
+        return sorted;
+    }
+}
+
+// Processing times of the messages of one kind of actor, by message type
+class ProcessingTimes {
+    private ConcurrentHashMap<Class<?>, Histogram> histograms = new ConcurrentHashMap<>();
+
+    // Run handler on msg and record the time it took under type
+    public <T> void time(Class<?> type, T msg, Consumer<T> handler) {
+        long start = System.nanoTime();
+        try {
+            handler.accept(msg);
+        } finally {
+            Histogram histogram = histograms.get(type);
+            if (histogram == null)
+                histogram = histograms.computeIfAbsent(type, k -> new Histogram());
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    public TreeMap<String, Histogram> byName() {
+        TreeMap<String, Histogram> sorted = new TreeMap<>();
+        for (Map.Entry<Class<?>, Histogram> histogram : histograms.entrySet())
+            sorted.put(histogram.getKey().getSimpleName(), histogram.getValue());
+        return sorted;
+    }
+}
+
+// Durations in nanoseconds counted in fixed buckets, the last bucket counts durations beyond every bound
+class Histogram {
+    static final long[] BOUNDS = {1000, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000,
+            5000000, 10000000, 25000000, 50000000, 100000000, 250000000, 500000000, 1000000000, 2500000000L, 10000000000L};
+    static final String[] BOUND_SECONDS = new String[BOUNDS.length]; // Bounds as written in the Prometheus format
+    private LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++)
+            BOUND_SECONDS[i] = BigDecimal.valueOf(BOUNDS[i]).movePointLeft(9).stripTrailingZeros().toPlainString();
+    }
+    private LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        int bucket = Arrays.binarySearch(BOUNDS, nanos);
+        counts[bucket >= 0 ? bucket : -bucket - 1].increment();
+        sum.add(nanos);
+    }
+
+    public long getCount(int bucket) {
+        return counts[bucket].sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (LongAdder count : counts)
+            total += count.sum();
+        return total;
+    }
+
+    public double getMean() {
+        long total = getTotal();
+        return total == 0 ? 0 : (double) getSum() / total;
+    }
+
+    // Upper bound of the bucket holding the given fraction of the durations
+    public long percentile(double fraction) {
+        long target = (long) Math.ceil(getTotal() * fraction);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts[i].sum();
+            if (seen >= target)
+                return BOUNDS[i];
+        }
+        return Long.MAX_VALUE;
+    }
+}
+
+// Read only JMX view of the server metrics, one attribute per metric
+class MetricsBean implements DynamicMBean {
+    private ServerMetrics metrics;
+
+    public MetricsBean(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) {
+        return metrics.snapshot().get(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (snapshot.containsKey(attribute))
+                list.add(new Attribute(attribute, snapshot.get(attribute)));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Metrics have no operations");
+    }
+
+    // Attributes are the metrics existing when asked, new message types appear once handled
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Object> metric : metrics.snapshot().entrySet())
+            attributes.add(new MBeanAttributeInfo(metric.getKey(), metric.getValue().getClass().getName(),
+                    metric.getKey(), true, false, false));
+        return new MBeanInfo(MetricsBean.class.getName(), "Chat server metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                null, null, null);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Hashed timing wheel: deadlines are hashed into slots by tick, so scheduling and cancelling take constant time
+// and advancing only visits the slots of the ticks that have passed. Not thread safe, owned by a single actor.
+public class TimingWheel<K> {
+    private long tickMillis; // Time covered by a single slot
+    private ArrayList<HashMap<K, Long>> slots; // Keys and their deadlines, by slot of the deadline's tick
+    private HashMap<K, Integer> slotOf = new HashMap<>(); // Slot of every scheduled key
+    private long currentTick; // Tick of the next slot to visit, visited again until it is over
+
+    public TimingWheel(long tickMillis, int wheelSize, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++)
+            slots.add(new HashMap<>());
+        this.currentTick = now / tickMillis;
+    }
+
+    public boolean isEmpty() {
+        return slotOf.isEmpty();
+    }
+
+    public int size() {
+        return slotOf.size();
+    }
+
+    // Schedule key to expire at deadline in epoch milliseconds, replacing its previous deadline
+    public void schedule(K key, long deadline) {
+        cancel(key);
+        // A deadline already passed expires on the next advance
+        int slot = (int) (Math.max(deadline / tickMillis, currentTick) % slots.size());
+        slots.get(slot).put(key, deadline);
+        slotOf.put(key, slot);
+    }
+
+    public void cancel(K key) {
+        Integer slot = slotOf.remove(key);
+        if (slot != null)
+            slots.get(slot).remove(key);
+    }
+
+    // Remove and return the keys whose deadline is not after now
+    public List<K> advance(long now) {
+        List<K> expired = new ArrayList<>();
+        long nowTick = now / tickMillis;
+        // Slots hold deadlines of later rounds too, a whole round visits every slot once
+        long ticks = Math.min(nowTick - currentTick + 1, slots.size());
+        for (long tick = currentTick; tick < currentTick + ticks; tick++) {
+            Iterator<Map.Entry<K, Long>> entries = slots.get((int) (tick % slots.size())).entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<K, Long> entry = entries.next();
+                if (entry.getValue() <= now) {
+                    entries.remove();
+                    slotOf.remove(entry.getKey());
+                    expired.add(entry.getKey());
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return expired;
+    }
+}
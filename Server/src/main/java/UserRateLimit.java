@@ -0,0 +1,54 @@
+import com.typesafe.config.Config;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Rate limit of every user on this node, shared by the manager and its group actors. Groups spend a token only once
+// the sender has passed their own validations. The buckets are flat arrays indexed by user id, in chunks that are
+// never copied, so a token taken while the chunks grow is never lost.
+public class UserRateLimit {
+    private static final int CHUNK_SIZE = 1024;
+
+    private RateLimit limit;
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[16];
+
+    public UserRateLimit(Config config) {
+        limit = new RateLimit(config);
+    }
+
+    // Take a token of user, returns the nanoseconds until one may be taken instead if there is none, or 0
+    public long take(String username) {
+        int id = UserIds.get().find(username);
+        if (!limit.isEnabled() || id < 0)
+            return 0;
+        AtomicLongArray buckets = chunkOf(id);
+        int index = id % CHUNK_SIZE;
+        long now = limit.now();
+        while (true) {
+            long state = buckets.get(index);
+            long delay = limit.delay(state, now);
+            if (delay > 0)
+                return delay;
+            if (buckets.compareAndSet(index, state, limit.take(state, now)))
+                return 0;
+        }
+    }
+
+    private AtomicLongArray chunkOf(int id) {
+        AtomicLongArray[] current = chunks;
+        int chunk = id / CHUNK_SIZE;
+        if (chunk < current.length && current[chunk] != null)
+            return current[chunk];
+        return addChunk(chunk);
+    }
+
+    private synchronized AtomicLongArray addChunk(int chunk) {
+        AtomicLongArray[] current = chunks;
+        if (chunk < current.length && current[chunk] != null)
+            return current[chunk];
+        AtomicLongArray[] grown = Arrays.copyOf(current, Math.max(chunk + 1, current.length * 2));
+        grown[chunk] = new AtomicLongArray(CHUNK_SIZE);
+        chunks = grown; // Published with the new chunk in place
+        return grown[chunk];
+    }
+}
@@ -0,0 +1,177 @@
+import akka.actor.ActorIdentity;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+// Random sequences of connects, disconnects and group operations are sent to the manager without waiting for their
+// replies, so group actors report membership changes while later operations are handled. Once every message has
+// arrived, the manager's index of the groups of each user must match the members of the group actors, and the stored
+// groups once the server stops
+public class UserGroupIndexTest {
+    private static final int USERS = 8;
+    private static final int GROUPS = 4;
+    private static final int ROUNDS = 20;
+    private static final int OPERATIONS = 50; // Operations of a round, the index is checked after every round
+
+    private ActorSystem system;
+    private TestActorRef<Manager> manager;
+    private TestKit client; // Sends the operations, their replies are not checked
+    private TestKit query; // Asks the groups about their members
+    private HashMap<String, User> online = new HashMap<>(); // Users the manager has accepted, by username
+    private String observer = "observer"; // Online and never a member, target of the admin lookups
+
+    @Test
+    public void indexMatchesMembershipAfterRandomOperations() throws Exception {
+        for (long seed = 0; seed < 5; seed++)
+            run(seed);
+    }
+
+    private void run(long seed) throws Exception {
+        Path directory = Files.createTempDirectory("user-group-index");
+        HashMap<String, Object> settings = new HashMap<>();
+        settings.put("akka.actor.provider", "local");
+        settings.put("akka.loglevel", "WARNING");
+        settings.put("akka.log-dead-letters", "off");
+        settings.put("chat.rate-limits.user.rate", 0);
+        settings.put("chat.rate-limits.group.rate", 0);
+        settings.put("chat.group-store.directory", directory.resolve("groups").toString());
+        settings.put("chat.mailbox.directory", directory.resolve("mailbox").toString());
+        settings.put("chat.blob-store.directory", directory.resolve("blobs").toString());
+        system = ActorSystem.create("UserGroupIndexTest", ConfigFactory.parseMap(settings).withFallback(ConfigFactory.load()));
+        HashMap<String, HashSet<String>> index;
+        try {
+            // Dispatched like any actor, so that group reports interleave with the operations
+            manager = TestActorRef.create(system, Props.create(Manager.class).withDispatcher("akka.actor.default-dispatcher"), "Manager");
+            client = new TestKit(system);
+            query = new TestKit(system);
+            online.clear();
+            connect(observer);
+
+            Random random = new Random(seed);
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < OPERATIONS; i++)
+                    randomOperation(random);
+                settle();
+                assertEquals("seed " + seed + ", round " + round, members(), copy(manager.underlyingActor().getUserGroups()));
+            }
+            index = copy(manager.underlyingActor().getUserGroups());
+
+            // Group changes are all in the journal before it is stopped
+            system.actorSelection("/user/Manager/journal").tell(new Identify(0), query.getRef());
+            query.expectMsgClass(ActorIdentity.class);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+
+        HashMap<String, HashSet<String>> stored = new HashMap<>();
+        GroupStore store = new GroupStore(directory.resolve("groups"));
+        for (StoredGroup group : store.recover().values()) {
+            for (String username : group.getMembers().keySet())
+                stored.computeIfAbsent(username, k -> new HashSet<>()).add(group.getGroupname());
+        }
+        store.close();
+        assertEquals("seed " + seed + ", stored groups", stored, index);
+    }
+
+    private void randomOperation(Random random) {
+        String username = "user" + random.nextInt(USERS);
+        String source = "user" + random.nextInt(USERS);
+        String groupname = "group" + random.nextInt(GROUPS);
+        switch (random.nextInt(7)) {
+            case 0:
+                if (!online.containsKey(username))
+                    connect(username);
+                break;
+            case 1:
+                manager.tell(new Disconnect(username), client.getRef());
+                online.remove(username);
+                break;
+            case 2:
+                manager.tell(new CreateGroup(groupname, username), client.getRef());
+                break;
+            case 3:
+            case 4:
+                manager.tell(new GroupAdd(groupname, source, username), client.getRef());
+                break;
+            case 5:
+                manager.tell(new LeaveGroup(groupname, username), client.getRef());
+                break;
+            default:
+                manager.tell(new GroupRemove(groupname, source, username), client.getRef());
+        }
+    }
+
+    // Every connection has its own communication actor, as a client connecting again does
+    private void connect(String username) {
+        User user = new User(username, new TestKit(system).getRef());
+        manager.tell(new Connect(user), client.getRef());
+        online.put(username, user);
+    }
+
+    // Let every message caused by the operations arrive. Groups handle what the manager has sent them before a lookup
+    // passing through them, then the manager handles what the groups have sent before a lookup of its own. Repeated
+    // for the replies to those messages
+    private void settle() {
+        for (int i = 0; i < 3; i++) {
+            for (int g = 0; g < GROUPS; g++)
+                ask(new Inviter("group" + g, observer, observer));
+            ask(new Connect(online.get(observer))); // Rejected, observer is already online
+        }
+    }
+
+    // Groups of every online user, as the group actors see them
+    private HashMap<String, HashSet<String>> members() {
+        HashMap<String, HashSet<String>> members = new HashMap<>();
+        for (int g = 0; g < GROUPS; g++) {
+            String groupname = "group" + g;
+            String admin = findAdmin(groupname);
+            if (admin == null)
+                continue;
+            for (String username : online.keySet()) {
+                Object reply = ask(new Inviter(groupname, admin, username));
+                if (reply instanceof Failure && ((Failure) reply).getReason() == Reason.INGROUP)
+                    members.computeIfAbsent(username, k -> new HashSet<>()).add(groupname);
+            }
+        }
+        return members;
+    }
+
+    // Admin of group, the only member allowed to invite. null if the group does not exist
+    private String findAdmin(String groupname) {
+        for (String username : online.keySet()) {
+            Object reply = ask(new Inviter(groupname, username, observer));
+            if (reply instanceof Failure && ((Failure) reply).getReason() == Reason.GROUPNAME)
+                return null;
+            if (!(reply instanceof Failure && ((Failure) reply).getReason() == Reason.SOURCE))
+                return username;
+        }
+        fail(groupname + " has no online admin");
+        return null;
+    }
+
+    private Object ask(Object msg) {
+        manager.tell(msg, query.getRef());
+        return query.expectMsgClass(Response.class);
+    }
+
+    private static HashMap<String, HashSet<String>> copy(Map<String, HashSet<String>> groups) {
+        HashMap<String, HashSet<String>> copy = new HashMap<>();
+        for (Map.Entry<String, HashSet<String>> entry : groups.entrySet())
+            copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        return copy;
+    }
+}
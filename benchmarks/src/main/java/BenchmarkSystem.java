@@ -0,0 +1,66 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Local actor systems running the server code of the benchmarks
+public class BenchmarkSystem {
+    // Actor system with the server configuration, without remoting
+    public static ActorSystem create(String name) {
+        return ActorSystem.create(name, localConfig().withFallback(ConfigFactory.load()));
+    }
+
+    // Actor system with settings overriding the server configuration
+    public static ActorSystem create(String name, Config settings) {
+        return ActorSystem.create(name, settings.withFallback(localConfig()).withFallback(ConfigFactory.load()));
+    }
+
+    // Actor system whose manager keeps its files in directory
+    public static ActorSystem create(String name, Path directory) {
+        HashMap<String, String> directories = new HashMap<>();
+        directories.put("chat.group-store.directory", directory.resolve("groups").toString());
+        directories.put("chat.mailbox.directory", directory.resolve("mailbox").toString());
+        directories.put("chat.blob-store.directory", directory.resolve("blobs").toString());
+        return ActorSystem.create(name, ConfigFactory.parseMap(directories)
+                .withFallback(localConfig()).withFallback(ConfigFactory.load()));
+    }
+
+    private static Config localConfig() {
+        return ConfigFactory.parseString("akka.actor.provider = local\n" +
+                "akka.loglevel = WARNING\n" +
+                "akka.log-dead-letters = off\n" +
+                "chat.rate-limits.user.rate = 0\n" +
+                "chat.rate-limits.group.rate = 0\n");
+    }
+
+    public static void terminate(ActorSystem system) throws Exception {
+        if (system != null) {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    public static void delete(Path directory) throws IOException {
+        if (directory == null)
+            return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
+
+// Communication actor of a user whose messages are dropped
+class Sink extends AbstractActor {
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().matchAny(msg -> {}).build();
+    }
+}
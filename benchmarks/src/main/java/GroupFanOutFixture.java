@@ -0,0 +1,89 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Group actor whose members report every text they receive
+public class GroupFanOutFixture implements benchmarks.GroupFanOutBenchmark.Fixture {
+    private static final long TIMEOUT = 30; // Seconds a text may take to reach every member
+
+    private ActorSystem system;
+    private ActorRef group;
+    private ActorRef sink; // Sender of the texts and journal of the group, drops what it receives
+    private Arrivals arrivals;
+    private TextData text = new TextData("user0", "group", "hello");
+
+    @Override
+    public void setUp(int members, boolean workers) throws Exception {
+        // Workers take over from the smallest group, or never
+        int threshold = workers ? 0 : Integer.MAX_VALUE;
+        system = BenchmarkSystem.create("GroupFanOutBenchmark",
+                ConfigFactory.parseString("chat.group-fan-out.threshold = " + threshold));
+        sink = system.actorOf(Props.create(Sink.class));
+        arrivals = new Arrivals(members);
+        UserRateLimit userLimit = new UserRateLimit(system.settings().config().getConfig("chat.rate-limits.user"));
+        group = system.actorOf(Props.create(GroupActor.class, "group", newUser("user0"), sink, userLimit));
+        for (int i = 1; i < members; i++) {
+            User user = newUser("user" + i);
+            group.tell(new GroupRequest(new GroupAdd("group", "user0", user.getUsername()), user), sink);
+        }
+        broadcast(); // Every member has joined once a text has reached all of them
+    }
+
+    private User newUser(String username) {
+        return new User(username, system.actorOf(Props.create(ArrivalCounter.class, arrivals)));
+    }
+
+    @Override
+    public void broadcast() throws Exception {
+        CompletableFuture<Void> done = arrivals.expect();
+        group.tell(text, sink);
+        done.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        BenchmarkSystem.terminate(system);
+    }
+}
+
+// Texts still on their way to the members, completes the waiting broadcast once all have arrived
+class Arrivals {
+    private int members;
+    private AtomicInteger remaining = new AtomicInteger();
+    private volatile CompletableFuture<Void> done;
+
+    public Arrivals(int members) {
+        this.members = members;
+    }
+
+    public CompletableFuture<Void> expect() {
+        done = new CompletableFuture<>();
+        remaining.set(members);
+        return done;
+    }
+
+    public void arrived() {
+        if (remaining.decrementAndGet() == 0)
+            done.complete(null);
+    }
+}
+
+// Communication actor of a member, reports the texts it receives
+class ArrivalCounter extends AbstractActor {
+    private Arrivals arrivals;
+
+    public ArrivalCounter(Arrivals arrivals) {
+        this.arrivals = arrivals;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(Data.class, data -> arrivals.arrived()).build();
+    }
+}
@@ -0,0 +1,35 @@
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+
+// Group of a given size, each member with its own communication actor
+public class GroupMembershipFixture implements benchmarks.GroupMembershipBenchmark.Fixture {
+    private ActorSystem system;
+    private Group group;
+    private User joining; // Member joining and leaving the group
+
+    @Override
+    public void setUp(int size) {
+        system = BenchmarkSystem.create("GroupMembershipBenchmark");
+        User admin = newUser("user0");
+        group = new Group(new Roster(system.settings().config().getInt("chat.group-fan-out.workers")), "group", admin);
+        for (int i = 1; i < size; i++)
+            group.addMember(newUser("user" + i), State.USER);
+        joining = newUser("joining");
+    }
+
+    private User newUser(String username) {
+        return new User(username, system.actorOf(Props.create(Sink.class)));
+    }
+
+    @Override
+    public Object addRemoveMember() {
+        group.addMember(joining, State.USER);
+        group.removeMember(joining);
+        return group.getRoster();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        BenchmarkSystem.terminate(system);
+    }
+}
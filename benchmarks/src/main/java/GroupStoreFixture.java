@@ -0,0 +1,52 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.stream.Stream;
+
+// Snapshot of every group followed by a log tail of mutes, in a temporary directory
+public class GroupStoreFixture implements benchmarks.GroupStoreBenchmark.Fixture {
+    private Path directory;
+
+    @Override
+    public void setUp(int groupCount, int memberCount, int logEvents) throws Exception {
+        directory = Files.createTempDirectory("group-store");
+        GroupStore store = new GroupStore(directory);
+        HashMap<String, StoredGroup> groups = store.recover();
+        long deadline = System.currentTimeMillis() + 3600000;
+        for (int i = 0; i < groupCount; i++) {
+            String groupname = "group" + i;
+            GroupStore.apply(groups, new GroupEvent(GroupEventType.CREATED, groupname, "user" + i, actorPath(i), State.ADMIN, 0, null));
+            for (int j = 1; j < memberCount; j++) {
+                int user = (i + j) % groupCount;
+                GroupStore.apply(groups, new GroupEvent(GroupEventType.JOINED, groupname, "user" + user, actorPath(user), State.USER, 0, null));
+            }
+        }
+        store.snapshot(groups);
+        for (int i = 0; i < logEvents; i++) {
+            int group = i % groupCount;
+            store.append(new GroupEvent(GroupEventType.MUTED, "group" + group, "user" + ((group + 1) % groupCount),
+                    null, State.MUTE, deadline, "user" + group));
+        }
+        store.close();
+    }
+
+    private static String actorPath(int user) {
+        return "akka://Client@127.0.0.1:" + (20000 + user % 40000) + "/user/CommunicationActor#" + user;
+    }
+
+    @Override
+    public Object recover() throws Exception {
+        GroupStore store = new GroupStore(directory);
+        HashMap<String, StoredGroup> recovered = store.recover();
+        store.close();
+        return recovered;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
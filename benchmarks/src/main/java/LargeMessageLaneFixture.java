@@ -0,0 +1,111 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Identify;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Two actor systems connected over Artery TCP, a chat peer echoing texts in one and a file streamed to the peer's
+// file receiver from the other, in chunks of the client size with the client window of unacknowledged chunks
+public class LargeMessageLaneFixture implements benchmarks.LargeMessageLaneBenchmark.Fixture {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int WINDOW = 8;
+
+    private ActorSystem receiver;
+    private ActorSystem sender;
+    private ActorRef peer; // Chat peer, as seen from the sender
+    private ActorRef streamer; // Streams the file, null when idle
+    private TextData text = new TextData("user0", "user1", "hello");
+
+    @Override
+    public void setUp(boolean largeLane, boolean transfer) throws Exception {
+        Config settings = ConfigFactory.parseString("akka.actor.provider = remote\n"
+                + "akka.remote.artery.canonical.port = 0\n"
+                + "akka.remote.artery.large-message-destinations = " + (largeLane ? "[\"/user/*/files\"]" : "[]") + "\n");
+        receiver = BenchmarkSystem.create("Receiver", settings);
+        sender = BenchmarkSystem.create("Sender", settings);
+        receiver.actorOf(Props.create(ChatPeer.class), "peer");
+
+        String address = ((ExtendedActorSystem) receiver).provider().getDefaultAddress().toString();
+        peer = resolve(address + "/user/peer");
+        if (transfer)
+            streamer = sender.actorOf(Props.create(ChunkStreamer.class, resolve(address + "/user/peer/files")));
+        chat(); // Connections are open once a text has come back
+    }
+
+    private ActorRef resolve(String path) throws Exception {
+        ActorIdentity identity = (ActorIdentity) Patterns.ask(sender.actorSelection(path), new Identify(path), TIMEOUT)
+                .toCompletableFuture().get(TIMEOUT.getSeconds(), TimeUnit.SECONDS);
+        return identity.getActorRef().orElseThrow(() -> new IllegalStateException(path + " not found"));
+    }
+
+    @Override
+    public void chat() throws Exception {
+        Patterns.ask(peer, text, TIMEOUT).toCompletableFuture().get(TIMEOUT.getSeconds(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (streamer != null)
+            sender.stop(streamer);
+        BenchmarkSystem.terminate(sender);
+        BenchmarkSystem.terminate(receiver);
+    }
+}
+
+// Chat peer sending every text back, its file receiver acknowledges chunks without writing them
+class ChatPeer extends AbstractActor {
+    @Override
+    public void preStart() {
+        getContext().actorOf(Props.create(ChunkAcknowledger.class), "files");
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(TextData.class, msg -> sender().tell(msg, self())).build();
+    }
+}
+
+class ChunkAcknowledger extends AbstractActor {
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(FileChunk.class, msg -> sender().tell(new Success(), self())).build();
+    }
+}
+
+// Streams a file without end, a new chunk is sent whenever one is acknowledged
+class ChunkStreamer extends AbstractActor {
+    private ActorRef files; // File receiver of the peer
+    private byte[] data = new byte[LargeMessageLaneFixture.CHUNK_SIZE]; // Content of every chunk, does not compress
+    private long offset = 0; // Position of the next chunk in the file
+
+    public ChunkStreamer(ActorRef files) {
+        this.files = files;
+        new Random(0).nextBytes(data);
+    }
+
+    @Override
+    public void preStart() {
+        for (int i = 0; i < LargeMessageLaneFixture.WINDOW; i++)
+            sendChunk();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(Success.class, msg -> sendChunk()).build();
+    }
+
+    private void sendChunk() {
+        files.tell(new FileChunk("user0", "user1", data, "transfer", "file.bin", offset, Long.MAX_VALUE), self());
+        offset += data.length;
+    }
+}
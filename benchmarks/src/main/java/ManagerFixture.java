@@ -0,0 +1,124 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+// Manager of a local actor system with a group of online users, fed one command type at a time
+public class ManagerFixture implements benchmarks.ManagerBenchmark.Fixture {
+    private static final int MEMBERS = 10; // Online users, all of them members of the group
+    private static final long TIMEOUT = 30; // Seconds a round may wait for its replies
+
+    private ActorSystem system;
+    private Path directory; // Files of the manager
+    private ActorRef manager;
+    private ActorRef replies; // Sender of the commands, counts the replies
+    private ActorRef sink; // Communication actor of every user
+    private String command;
+    private long rounds = 0; // Rounds run so far, keeps the usernames of connecting users unique
+
+    @Override
+    public void setUp(String command) throws Exception {
+        this.command = command;
+        directory = Files.createTempDirectory("manager-benchmark");
+        system = BenchmarkSystem.create("ManagerBenchmark", directory);
+        manager = system.actorOf(Props.create(Manager.class), "Manager");
+        replies = system.actorOf(Props.create(ReplyCounter.class));
+        sink = system.actorOf(Props.create(Sink.class));
+
+        // Online users sharing a group
+        send(MEMBERS, i -> new Connect(new User("user" + i, sink)));
+        send(1, i -> new CreateGroup("group", "user0"));
+        for (int i = 1; i < MEMBERS; i++)
+            manager.tell(new GroupAdd("group", "user0", "user" + i), replies);
+    }
+
+    @Override
+    public void run(int count) throws Exception {
+        long round = rounds++;
+        switch (command) {
+            case "user-lookup": // Looked up before a direct message
+                send(count, i -> new UserText("user0", member(i), "hello"));
+                break;
+            case "group-text": // Validated and broadcast by the group
+                send(count, i -> new TextData("user0", "group", "hello"));
+                break;
+            case "connect-disconnect":
+                send(count, i -> i % 2 == 0 ?
+                        new Connect(new User("user-" + round + "-" + i / 2, sink)) :
+                        new Disconnect("user-" + round + "-" + i / 2));
+                break;
+            case "mute-unmute": // Validated and applied by the group, logged by the journal
+                send(count, i -> i % 2 == 0 ?
+                        new MuteMember("group", "user0", member(i / 2), 60000L) :
+                        new UnmuteMember("group", "user0", member(i / 2)));
+                break;
+            case "unknown-group": // Rejected by the manager
+                send(count, i -> new TextData("user0", "missing", "hello"));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    // A member other than the admin
+    private static String member(int i) {
+        return "user" + (1 + i % (MEMBERS - 1));
+    }
+
+    // Send commands to the manager and wait for a reply to each of them
+    private void send(int count, IntFunction<Object> command) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        replies.tell(new ExpectReplies(count, done), ActorRef.noSender());
+        for (int i = 0; i < count; i++)
+            manager.tell(command.apply(i), replies);
+        done.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        BenchmarkSystem.terminate(system);
+        BenchmarkSystem.delete(directory);
+    }
+}
+
+// Counts the replies of the manager and completes the waiting round once all have arrived
+class ReplyCounter extends AbstractActor {
+    private int remaining = 0;
+    private CompletableFuture<Void> done;
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().match(ExpectReplies.class, msg -> {
+            remaining = msg.getCount();
+            done = msg.getDone();
+        }).matchAny(reply -> {
+            if (--remaining == 0)
+                done.complete(null);
+        }).build();
+    }
+}
+
+// Sent to the reply counter before a round of commands
+class ExpectReplies {
+    private int count;
+    private CompletableFuture<Void> done;
+
+    public ExpectReplies(int count, CompletableFuture<Void> done) {
+        this.count = count;
+        this.done = done;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public CompletableFuture<Void> getDone() {
+        return done;
+    }
+}
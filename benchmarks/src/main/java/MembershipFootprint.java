@@ -0,0 +1,86 @@
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Measures the heap kept per group membership, by the id keyed groups and by the former string keyed layout:
+// java -cp benchmarks/target/benchmarks.jar MembershipFootprint [groups] [members] [users]
+public class MembershipFootprint {
+    public static void main(String[] args) throws Exception {
+        int groupCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int memberCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int userCount = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        ActorSystem system = BenchmarkSystem.create("MembershipFootprint");
+
+        try {
+            // Users are connected, so their names and actors exist before any group
+            User[] users = new User[userCount];
+            for (int i = 0; i < userCount; i++)
+                users[i] = new User("user" + i, system.actorOf(Props.create(Sink.class)));
+            int workers = system.settings().config().getInt("chat.group-fan-out.workers");
+            long memberships = (long) groupCount * memberCount;
+
+            long before = usedHeap();
+            // The id of every name is part of the id keyed layout
+            for (User user : users)
+                UserIds.get().intern(user.getUsername());
+            ArrayList<Group> groups = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                Group group = new Group(new Roster(workers), "group" + i, users[i % userCount]);
+                for (int j = 1; j < memberCount; j++)
+                    group.addMember(users[(i + j) % userCount], State.USER);
+                group.getRoster().snapshot(0); // Broadcasts keep the snapshots
+                groups.add(group);
+            }
+            long idKeyed = usedHeap() - before;
+            System.out.printf("id keyed:     %d groups, %.1f bytes per membership%n", groups.size(), (double) idKeyed / memberships);
+            groups = null;
+
+            before = usedHeap();
+            ArrayList<StringKeyedGroup> stringGroups = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                StringKeyedGroup group = new StringKeyedGroup();
+                for (int j = 0; j < memberCount; j++)
+                    group.addMember(users[(i + j) % userCount]);
+                group.snapshot();
+                stringGroups.add(group);
+            }
+            long stringKeyed = usedHeap() - before;
+            System.out.printf("string keyed: %d groups, %.1f bytes per membership%n", stringGroups.size(), (double) stringKeyed / memberships);
+        } finally {
+            BenchmarkSystem.terminate(system);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
+
+// Membership state of a group as kept before usernames were interned, each name read from its own request
+class StringKeyedGroup {
+    private HashMap<String, State> members = new HashMap<>();
+    private HashMap<String, ActorRef> memberActors = new HashMap<>();
+    private ArrayList<ActorRef> actors = new ArrayList<>();
+    private HashMap<ActorRef, Integer> positions = new HashMap<>();
+    private ActorRef[] snapshot;
+
+    public void addMember(User user) {
+        String username = new String(user.getUsername().toCharArray());
+        members.put(username, State.USER);
+        memberActors.put(username, user.getCommunicationActor());
+        positions.put(user.getCommunicationActor(), actors.size());
+        actors.add(user.getCommunicationActor());
+    }
+
+    public void snapshot() {
+        snapshot = actors.toArray(new ActorRef[0]);
+    }
+}
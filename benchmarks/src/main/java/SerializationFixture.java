@@ -0,0 +1,117 @@
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Message serializer of the chat or Java serialization, and a chat message, batch or file to serialize
+public class SerializationFixture implements benchmarks.SerializationBenchmark.Fixture {
+    private static final String[] WORDS = {"hey", "are", "we", "still", "meeting", "tomorrow", "at", "the", "office",
+            "I", "think", "so", "let", "me", "check", "with", "everyone", "first", "and", "get", "back", "to", "you",
+            "sounds", "good", "see", "then", "did", "send", "file", "yet", "no", "will", "it", "tonight", "thanks"};
+
+    private ActorSystem system;
+    private MessageSerializer serializer; // null for Java serialization
+    private Object message;
+    private String manifest;
+    private byte[] bytes; // Serialized message
+
+    @Override
+    public void setUp(String message, int size, String format) throws Exception {
+        system = BenchmarkSystem.create("SerializationBenchmark",
+                ConfigFactory.parseString("chat.compression.enabled = " + format.equals("compressed")));
+        if (!format.equals("java"))
+            serializer = new MessageSerializer((ExtendedActorSystem) system);
+        Random random = new Random(size);
+        int original;
+        int count = 1; // Messages serialized together
+        switch (message) {
+            case "text":
+                String text = chat(random, size);
+                this.message = new TextData("user0", "user1", text);
+                original = text.length();
+                break;
+            case "batch":
+                // Messages of a chat line each, as a group delivers them to a member
+                ArrayList<Data> batch = new ArrayList<>();
+                for (int length = 0; length < size; length += 100)
+                    batch.add(new TextData("user" + batch.size() % 8, "group0", chat(random, 100)));
+                this.message = new DataBatch("user1", batch);
+                original = batch.size() * 100;
+                count = batch.size();
+                break;
+            case "log-file":
+                byte[] log = log(random, size);
+                this.message = new FileData("user0", "user1", log, "server.log");
+                original = log.length;
+                break;
+            default:
+                // Already compressed content, known by its name or found by its first bytes
+                byte[] file = new byte[size];
+                random.nextBytes(file);
+                this.message = new FileData("user0", "user1", file, message.equals("jpeg-file") ? "photo.jpg" : "file.bin");
+                original = file.length;
+        }
+        if (serializer != null)
+            manifest = serializer.manifest(this.message);
+        bytes = toBinary();
+        System.out.printf("%n%s of %d bytes serialized to %d bytes by %s, %d bytes per message%n",
+                message, original, bytes.length, format, bytes.length / count);
+    }
+
+    // Text of size characters made of chat words
+    private static String chat(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size)
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        text.setLength(size);
+        return text.toString();
+    }
+
+    // Log file of size bytes with timestamped lines
+    private static byte[] log(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 128);
+        long time = 1700000000000L;
+        while (text.length() < size) {
+            time += random.nextInt(50);
+            text.append(time).append(random.nextInt(10) == 0 ? " WARN " : " INFO ")
+                    .append("Delivered message ").append(random.nextInt(1000000))
+                    .append(" to user").append(random.nextInt(10000))
+                    .append(" in ").append(random.nextInt(20)).append(" ms\n");
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] toBinary() throws IOException {
+        if (serializer != null)
+            return serializer.toBinary(message);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(out)) {
+            objects.writeObject(message);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary() throws IOException, ClassNotFoundException {
+        if (serializer != null)
+            return serializer.fromBinary(bytes, manifest);
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objects.readObject();
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        BenchmarkSystem.terminate(system);
+    }
+}
@@ -0,0 +1,12 @@
+package benchmarks;
+
+// Creates the fixtures of the benchmarks. Fixtures live in the default package with the chat classes, which
+// code in a package cannot import, and JMH does not run benchmarks of the default package.
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static <T> T create(String className, Class<T> type) throws ReflectiveOperationException {
+        return type.cast(Class.forName(className).getConstructor().newInstance());
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Time from a group text reaching the group actor until every member has received it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GroupFanOutBenchmark {
+    // Group actor whose members count the texts they receive, implemented by GroupFanOutFixture
+    public interface Fixture {
+        void setUp(int members, boolean workers) throws Exception;
+
+        // Send a text to the group and wait until every member has received it
+        void broadcast() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"10", "1000", "100000"})
+    public int members;
+    // Hand the texts to the fan-out workers, or have the group actor send them all itself
+    @Param({"workers", "inline"})
+    public String delivery;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixtures.create("GroupFanOutFixture", Fixture.class);
+        fixture.setUp(members, delivery.equals("workers"));
+    }
+
+    @Benchmark
+    public void broadcast() throws Exception {
+        fixture.broadcast();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+}
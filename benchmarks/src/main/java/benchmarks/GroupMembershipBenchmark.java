@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of a member joining and leaving a group as the group grows, which should stay flat
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupMembershipBenchmark {
+    // Group of a given size, implemented by GroupMembershipFixture
+    public interface Fixture {
+        void setUp(int size) throws Exception;
+
+        // Add a member to the group and remove it again, returns the resulting roster
+        Object addRemoveMember();
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixtures.create("GroupMembershipFixture", Fixture.class);
+        fixture.setUp(size);
+    }
+
+    @Benchmark
+    public Object addRemoveMember() {
+        return fixture.addRemoveMember();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Startup recovery time of the group store, from a snapshot of every group followed by a log tail
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupStoreBenchmark {
+    // Stored groups on disk, implemented by GroupStoreFixture
+    public interface Fixture {
+        void setUp(int groups, int members, int logEvents) throws Exception;
+
+        // Recover the groups from disk, returns the recovered groups
+        Object recover() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"1000", "100000"})
+    public int groups;
+    @Param({"5"})
+    public int members;
+    @Param({"0", "10000"})
+    public int logEvents;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixtures.create("GroupStoreFixture", Fixture.class);
+        fixture.setUp(groups, members, logEvents);
+    }
+
+    @Benchmark
+    public Object recover() throws Exception {
+        return fixture.recover();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+}
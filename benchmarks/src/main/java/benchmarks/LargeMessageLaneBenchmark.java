@@ -0,0 +1,60 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Round trip of a chat text between two remote actor systems while a file streams between them, with file chunks
+// on the large message connection or sharing the connection of the texts. The p99 shows texts queued behind chunks
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LargeMessageLaneBenchmark {
+    // Chat peer in another actor system and a file streamed to it, implemented by LargeMessageLaneFixture
+    public interface Fixture {
+        void setUp(boolean largeLane, boolean transfer) throws Exception;
+
+        // Send a text to the peer and wait for it to come back
+        void chat() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    // Send file chunks on the large message connection, or on the one shared with the texts
+    @Param({"large", "shared"})
+    public String lane;
+    // Stream a file to the peer during the whole run, or leave the texts alone
+    @Param({"file", "idle"})
+    public String transfer;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixtures.create("LargeMessageLaneFixture", Fixture.class);
+        fixture.setUp(lane.equals("large"), transfer.equals("file"));
+    }
+
+    @Benchmark
+    public void chat() throws Exception {
+        fixture.chat();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Commands handled by the manager per second, by command type. Commands are sent in rounds, each round waits
+// for every reply.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ManagerBenchmark {
+    private static final int ROUND = 1000; // Commands sent before waiting for their replies
+
+    // Manager of a local actor system, implemented by ManagerFixture
+    public interface Fixture {
+        void setUp(String command) throws Exception;
+
+        // Send commands of the type set up and wait for every reply
+        void run(int count) throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"user-lookup", "group-text", "connect-disconnect", "mute-unmute", "unknown-group"})
+    public String command;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixtures.create("ManagerFixture", Fixture.class);
+        fixture.setUp(command);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND)
+    public void handleCommands() throws Exception {
+        fixture.run(ROUND);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+}
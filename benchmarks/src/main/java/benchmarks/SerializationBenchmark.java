@@ -0,0 +1,68 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Time to serialize and deserialize chat messages and files with the message serializer, with and without
+// compression, and with Java serialization as the baseline. The serialized size of every message is printed on setup
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    // Message serializer and a message to serialize, implemented by SerializationFixture
+    public interface Fixture {
+        // Message is a chat text or a batch of chat lines of size characters, or a file of size bytes
+        void setUp(String message, int size, String format) throws Exception;
+
+        byte[] toBinary() throws Exception;
+
+        Object fromBinary() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"text", "batch", "log-file", "jpeg-file", "random-file"})
+    public String message;
+    @Param({"100", "65536"})
+    public int size;
+    // Message serializer with compression on or off, or Java serialization
+    @Param({"compressed", "binary", "java"})
+    public String format;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = Fixtures.create("SerializationFixture", Fixture.class);
+        fixture.setUp(message, size, format);
+    }
+
+    @Benchmark
+    public byte[] toBinary() throws Exception {
+        return fixture.toBinary();
+    }
+
+    @Benchmark
+    public Object fromBinary() throws Exception {
+        return fixture.fromBinary();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+}
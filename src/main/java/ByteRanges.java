@@ -0,0 +1,41 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+// Parts of a file received so far, as disjoint ranges. Chunks may arrive in any order and more than once, a file is
+// complete only once every one of its bytes is covered
+public class ByteRanges {
+    private TreeMap<Long, Long> ranges = new TreeMap<>(); // End of every range by its start, ranges never touch
+    private long covered = 0; // Bytes in all ranges together
+
+    // Mark the bytes from start to end, end excluded, as received
+    public void add(long start, long end) {
+        if (start >= end)
+            return;
+        // Merge with the range the new one starts in or right after
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+            remove(before);
+        }
+        // Merge with the ranges starting within the new one or right after it
+        Map.Entry<Long, Long> after = ranges.ceilingEntry(start);
+        while (after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            remove(after);
+            after = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+        covered += end - start;
+    }
+
+    private void remove(Map.Entry<Long, Long> range) {
+        ranges.remove(range.getKey());
+        covered -= range.getValue() - range.getKey();
+    }
+
+    // Every byte from 0 to size is covered, ranges are expected to lie within the size
+    public boolean covers(long size) {
+        return covered >= size;
+    }
+}
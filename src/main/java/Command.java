@@ -35,6 +35,38 @@ class Disconnect extends ConnectionCommand {
     }
 }
 
+// Sent by a connected user to receive the messages queued while offline
+class FetchMailbox extends ConnectionCommand {
+    private String username;
+
+    public FetchMailbox(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
+
+// Sent by a client whose mailbox is full to stop group deliveries to the user, and again to resume them
+class PauseDelivery extends ConnectionCommand {
+    private String username;
+    private boolean paused;
+
+    public PauseDelivery(String username, boolean paused) {
+        this.username = username;
+        this.paused = paused;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+}
+
 abstract class UserCommand extends Command {
     private String source;
     private String target;
@@ -197,8 +229,15 @@ class Inviter extends GroupInvite {
 }
 
 class Invited extends GroupInvite {
-    public Invited(String groupname, String source, String target) {
+    private String inviteId; // Names the invite in the answer of the invited user
+
+    public Invited(String groupname, String source, String target, String inviteId) {
         super(groupname, source, target);
+        this.inviteId = inviteId;
+    }
+
+    public String getInviteId() {
+        return inviteId;
     }
 }
 
@@ -306,4 +345,29 @@ class UnmuteMember extends MuteCommand {
     public UnmuteMember(String groupname, String source, String target) {
         super(groupname, source, target);
     }
+}
+
+// Request for a range of a stored file
+class FetchChunk extends Command {
+    private String hash;
+    private long offset;
+    private int length;
+
+    public FetchChunk(String hash, long offset, int length) {
+        this.hash = hash;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+import com.typesafe.config.Config;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Deflate at its fastest level for message payloads. Small payloads, files whose type is already compressed and
+// files whose first bytes do not compress are sent as they are. Thread safe, every thread has its own codec.
+public class Compression {
+    private boolean enabled;
+    private int threshold; // Smallest payload compressed, in bytes
+    private int sampleSize; // Bytes of a file compressed first to decide on the rest
+    private double maxRatio; // Compressed size relative to the original above which compression is not worth it
+    private int maxSize; // Largest original size of a payload accepted for decompression
+    private HashSet<String> compressedTypes = new HashSet<>(); // Extensions of files that are already compressed
+
+    private ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public Compression(Config config) {
+        enabled = config.getBoolean("enabled");
+        threshold = config.getBytes("threshold").intValue();
+        sampleSize = config.getBytes("sample-size").intValue();
+        maxRatio = config.getDouble("max-ratio");
+        maxSize = config.getBytes("max-size").intValue();
+        for (String type : config.getStringList("compressed-types"))
+            compressedTypes.add(type.toLowerCase(Locale.ROOT));
+    }
+
+    // Compressed text, null when it is sent as it is
+    public byte[] compressText(byte[] text) {
+        if (!enabled || text.length < threshold)
+            return null;
+        return compress(text, text.length);
+    }
+
+    // Compressed file content, null when it is sent as it is
+    public byte[] compressFile(String filename, byte[] data) {
+        if (!enabled || data.length < threshold || isCompressedType(filename))
+            return null;
+        // Content like images or archives is found by a sample before the whole payload is compressed
+        if (data.length > 2 * sampleSize && compress(data, sampleSize) == null)
+            return null;
+        return compress(data, data.length);
+    }
+
+    private boolean isCompressedType(String filename) {
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        return dot >= 0 && compressedTypes.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // First length bytes of data compressed, null when they do not shrink below the ratio
+    private byte[] compress(byte[] data, int length) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        // Output that does not fit is not worth sending compressed
+        byte[] buffer = new byte[(int) (length * maxRatio)];
+        int size = 0;
+        while (!deflater.finished() && size < buffer.length)
+            size += deflater.deflate(buffer, size, buffer.length - size);
+        if (!deflater.finished())
+            return null;
+        byte[] compressed = new byte[size];
+        System.arraycopy(buffer, 0, compressed, 0, size);
+        return compressed;
+    }
+
+    // Original bytes of a compressed payload of the given length, which comes from the wire and must match exactly
+    public byte[] decompress(byte[] compressed, int length) throws DataFormatException {
+        if (length < 0 || length > maxSize)
+            throw new DataFormatException("Payload of " + length + " bytes claimed, at most " + maxSize + " accepted");
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] data = new byte[length];
+        int size = 0;
+        while (size < length) {
+            int inflated = inflater.inflate(data, size, length - size);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                break;
+            size += inflated;
+        }
+        if (size != length)
+            throw new DataFormatException("Payload of " + size + " bytes, expected " + length);
+        // The stream must end right here, output left beyond the length is refused
+        if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished()))
+            throw new DataFormatException("Payload longer than the " + length + " bytes expected");
+        return data;
+    }
+}
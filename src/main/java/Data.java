@@ -1,4 +1,7 @@
+import akka.actor.ActorRef;
+
 import java.io.Serializable;
+import java.util.ArrayList;
 
 abstract class Data<T> implements Serializable {
     private String source;
@@ -44,3 +47,68 @@ class FileData extends Data<byte[]> {
         return filename;
     }
 }
+
+// Piece of a file streamed in fixed size chunks
+class FileChunk extends Data<byte[]> {
+    private String transferId; // Id of the transfer the chunk belongs to
+    private String filename;
+    private long offset; // Position of the chunk in the file
+    private long size; // Size of the whole file
+
+    public FileChunk(String source, String target, byte[] data, String transferId, String filename, long offset, long size) {
+        super(source, target, data);
+        this.transferId = transferId;
+        this.filename = filename;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
+
+// File stored once on the server and offered to the members of a group, data is the content hash
+class FileOffer extends Data<String> {
+    private String filename;
+    private long size;
+    private ActorRef store; // Store holding the file content
+
+    public FileOffer(String source, String target, String hash, String filename, long size, ActorRef store) {
+        super(source, target, hash);
+        this.filename = filename;
+        this.size = size;
+        this.store = store;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public ActorRef getStore() {
+        return store;
+    }
+}
+
+// Group messages collected during a short window, delivered to every member at once and in order
+class DataBatch extends Data<ArrayList<Data>> {
+    public DataBatch(String target, ArrayList<Data> data) {
+        super(null, target, data);
+    }
+}
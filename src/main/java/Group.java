@@ -1,82 +1,167 @@
-import akka.actor.Cancellable;
-import akka.routing.Router;
-import javafx.util.Pair;
+import akka.actor.ActorRef;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 enum State {ADMIN, COADMIN, USER, MUTE}
 
 public class Group implements Serializable {
-    private Router router; // Router of the group
+    private static final State[] states = State.values();
+
+    private Roster roster; // Communication actor of every member, for broadcasting
     String groupname; // Group name
-    private HashMap<String, State> members = new HashMap<>(); // Members of the group and their state
-    // Muted members and their mute duration and cancel mute event
-    private HashMap<String, Pair<Long, Cancellable>> mutedMembers = new HashMap<>();
+    private IntIntMap members = new IntIntMap(); // State of every member by user id, as its ordinal
+    private IntIntMap muteSlots = new IntIntMap(); // Position of every muted member in the mute arrays
+    private int[] mutedIds = new int[0]; // User id of each muted member
+    private long[] muteDeadlines = new long[0]; // Time the mute of each muted member ends in epoch milliseconds
+    private transient UserIds ids = UserIds.get(); // Ids of this process, the same ones after deserializing
 
-    public Group(Router router, String groupname, String admin) {
-        this.router = router;
+    public Group(Roster roster, String groupname, User admin) {
+        this.roster = roster;
         this.groupname = groupname;
-        members.put(admin, State.ADMIN);
+        int id = ids.intern(admin.getUsername());
+        members.put(id, State.ADMIN.ordinal(), -1);
+        roster.put(id, admin.getCommunicationActor());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ids = UserIds.get();
     }
 
-    public Router getRouter() {
-        return router;
+    public Roster getRoster() {
+        return roster;
     }
 
     public String getGroupname() {
         return groupname;
     }
 
-    public HashMap<String, State> getMembers() {
-        return members;
+    public int getMemberCount() {
+        return members.size();
     }
 
-    // Add member to map and to router routees
+    // Usernames of the members in no particular order
+    public ArrayList<String> getUsernames() {
+        ArrayList<String> usernames = new ArrayList<>(members.size());
+        for (int id : members.keys())
+            usernames.add(ids.username(id));
+        return usernames;
+    }
+
+    // Add member to the membership table and to roster
     public void addMember(User user, State state) {
-        members.put(user.getUsername(), state);
-        router = router.addRoutee(user.getCommunicationActor());
+        int id = ids.intern(user.getUsername());
+        members.put(id, state.ordinal(), -1);
+        roster.put(id, user.getCommunicationActor());
+    }
+
+    // Send messages of a member to its new communication actor
+    public void replaceMemberActor(User user) {
+        roster.put(ids.intern(user.getUsername()), user.getCommunicationActor());
     }
 
-    // Remove member from map and router routees
+    // Remove member from the membership table, roster and muted list
     public void removeMember(User user) {
-        members.remove(user.getUsername());
-        router = router.removeRoutee(user.getCommunicationActor());
+        int id = ids.find(user.getUsername());
+        if (id < 0)
+            return;
+        members.remove(id, -1);
+        roster.remove(id);
+        removeMute(id);
+    }
+
+    // Stop broadcasting to member until it resumes, it stays a member
+    public void pauseMember(String username) {
+        if (isMember(username))
+            roster.pause(ids.find(username));
+    }
+
+    // Broadcast to member again, returns the messages it has skipped while paused
+    public int resumeMember(String username) {
+        return isMember(username) ? roster.resume(ids.find(username)) : 0;
+    }
+
+    public ActorRef getMemberActor(String username) {
+        int id = ids.find(username);
+        return id < 0 ? null : roster.get(id);
+    }
+
+    // Roster partition of a member, whose messages all go through the same fan-out worker
+    public int getMemberPartition(String username) {
+        return roster.getPartition(ids.find(username));
     }
 
     public boolean isMember(String username) {
-        return members.containsKey(username);
+        int id = ids.find(username);
+        return id >= 0 && members.containsKey(id);
+    }
+
+    // State of member, null if not a member
+    public State getMemberState(String username) {
+        int id = ids.find(username);
+        int state = id < 0 ? -1 : members.get(id, -1);
+        return state < 0 ? null : states[state];
     }
 
     public boolean isMemberState(String username, State state) {
-        if (isMember(username))
-            return members.get(username) == state;
-        return false;
+        return getMemberState(username) == state;
     }
 
     public void setMemberState(String username, State state) {
-        members.put(username, state);
+        members.put(ids.intern(username), state.ordinal(), -1);
     }
 
-    // Change member state to MUTE and add it to muted list
-    public void muteMember(String username, Long duration, Cancellable cancel) {
-        if (isMember(username)) {
-            setMemberState(username, State.MUTE);
-            mutedMembers.put(username, new Pair<>(duration, cancel));
+    // Change member state to MUTE and add it to muted list, replacing a previous mute
+    public void muteMember(String username, long deadline) {
+        if (!isMember(username))
+            return;
+        setMemberState(username, State.MUTE);
+        int id = ids.find(username);
+        int slot = muteSlots.get(id, -1);
+        if (slot < 0) {
+            slot = muteSlots.size();
+            if (slot == mutedIds.length) {
+                mutedIds = Arrays.copyOf(mutedIds, Math.max(4, slot * 2));
+                muteDeadlines = Arrays.copyOf(muteDeadlines, mutedIds.length);
+            }
+            mutedIds[slot] = id;
+            muteSlots.put(id, slot, -1);
         }
+        muteDeadlines[slot] = deadline;
     }
 
-    // Change member state, remove it from list and cancel future unmute event
+    // Change member state and remove it from muted list
     public void unmuteMember(String username) {
         setMemberState(username, State.USER);
-        Pair<Long, Cancellable> pair = mutedMembers.remove(username);
-        if (pair != null)
-            pair.getValue().cancel();
+        removeMute(ids.find(username));
+    }
+
+    // Remove mute of member, the last mute takes its position
+    private void removeMute(int id) {
+        int slot = muteSlots.remove(id, -1);
+        if (slot < 0)
+            return;
+        int last = muteSlots.size();
+        if (slot < last) {
+            mutedIds[slot] = mutedIds[last];
+            muteDeadlines[slot] = muteDeadlines[last];
+            muteSlots.put(mutedIds[slot], slot, -1);
+        }
+    }
+
+    // Time the mute of member ends in epoch milliseconds, 0 if not muted
+    public long getMuteDeadline(String username) {
+        int id = ids.find(username);
+        int slot = id < 0 ? -1 : muteSlots.get(id, -1);
+        return slot < 0 ? 0 : muteDeadlines[slot];
     }
 
-    public Long getMuteDuration(String username) {
-        if (mutedMembers.containsKey(username))
-            return mutedMembers.get(username).getKey();
-        return 0L;
+    // Milliseconds left until the mute of member ends
+    public long getMuteRemaining(String username, long now) {
+        return Math.max(0, getMuteDeadline(username) - now);
     }
 }
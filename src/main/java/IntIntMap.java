@@ -0,0 +1,124 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Map of int keys to int values in two flat arrays, with open addressing and linear probing. Not thread safe.
+public class IntIntMap implements Serializable {
+    private static final int FREE = -1; // Marks an empty slot, keys are never negative
+
+    private int[] keys;
+    private int[] values;
+    private int shift; // Drops the hash bits beyond the slot count
+    private int size = 0;
+
+    public IntIntMap() {
+        this(8);
+    }
+
+    public IntIntMap(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(capacity * 4 / 3, 2) - 1) << 1;
+        allocate(slots);
+    }
+
+    private void allocate(int slots) {
+        keys = new int[slots];
+        values = new int[slots];
+        shift = 32 - Integer.numberOfTrailingZeros(slots);
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // First slot of the probe sequence of key, spreading consecutive ids over the table
+    private int home(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    // Slot of key, or of the free slot ending its probe sequence
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        int slot = home(key);
+        while (keys[slot] != FREE && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    public boolean containsKey(int key) {
+        return keys[slotOf(key)] == key;
+    }
+
+    // Value of key, or missing if it is not in the map
+    public int get(int key, int missing) {
+        int slot = slotOf(key);
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    // Put value of key, returns its previous value or missing
+    public int put(int key, int value, int missing) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative key " + key);
+        int slot = slotOf(key);
+        if (keys[slot] == key) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // Keep at most three quarters of the slots used
+        if (++size * 4 > keys.length * 3)
+            resize(keys.length * 2);
+        return missing;
+    }
+
+    // Remove key, returns its value or missing
+    public int remove(int key, int missing) {
+        int slot = slotOf(key);
+        if (keys[slot] != key)
+            return missing;
+        int value = values[slot];
+        size--;
+        // Move back the following keys of the probe sequence which would no longer be found
+        int mask = keys.length - 1;
+        int free = slot;
+        for (int next = (slot + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = home(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = FREE;
+        return value;
+    }
+
+    // Keys in no particular order
+    public int[] keys() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int key : keys) {
+            if (key != FREE)
+                result[i++] = key;
+        }
+        return result;
+    }
+
+    private void resize(int slots) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(slots);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
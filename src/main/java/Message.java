@@ -23,3 +23,17 @@ class ProcessMessage extends Message {
         super(message);
     }
 }
+
+// Answer of the user to a group invite, the message names the group of the invite or is null
+class AnswerInvite extends Message {
+    private boolean accepted;
+
+    public AnswerInvite(String groupname, boolean accepted) {
+        super(groupname);
+        this.accepted = accepted;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+}
@@ -0,0 +1,481 @@
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializerWithStringManifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.NotSerializableException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+
+// Compact binary serializer for the messages passed between clients and the server
+public class MessageSerializer extends SerializerWithStringManifest {
+    // Manifest ids are part of the wire format, never change or reuse them
+    static final String CONNECT = "CN";
+    static final String DISCONNECT = "DC";
+    static final String FETCH_MAILBOX = "FM";
+    static final String PAUSE_DELIVERY = "PD";
+    static final String USER_TEXT = "UT";
+    static final String USER_FILE = "UF";
+    static final String LEAVE_GROUP = "GL";
+    static final String CREATE_GROUP = "GC";
+    static final String GROUP_TEXT = "GT";
+    static final String GROUP_FILE = "GF";
+    static final String INVITER = "IR";
+    static final String INVITED = "ID";
+    static final String GROUP_ADD = "GA";
+    static final String GROUP_REMOVE = "GR";
+    static final String COADMIN_ADD = "CA";
+    static final String COADMIN_REMOVE = "CR";
+    static final String MUTE_MEMBER = "MM";
+    static final String UNMUTE_MEMBER = "UM";
+    static final String TEXT_DATA = "TD";
+    static final String FILE_DATA = "FD";
+    static final String FILE_CHUNK = "FC";
+    static final String FILE_OFFER = "FO";
+    static final String FETCH_CHUNK = "FX";
+    static final String DATA_BATCH = "DB";
+    static final String SUCCESS = "S";
+    static final String FAILURE = "F";
+    static final String CONFIRM = "Y";
+    static final String DECLINE = "N";
+    static final String BLOB_STORED = "BS";
+    static final String USER_OFFLINE = "UO";
+    static final String USER = "U";
+
+    private static final int COMPRESSED = -2; // Length prefix of a compressed payload, -1 stands for null
+
+    private static final HashMap<Class<?>, String> manifests = new HashMap<>();
+
+    static {
+        manifests.put(Connect.class, CONNECT);
+        manifests.put(Disconnect.class, DISCONNECT);
+        manifests.put(FetchMailbox.class, FETCH_MAILBOX);
+        manifests.put(PauseDelivery.class, PAUSE_DELIVERY);
+        manifests.put(UserText.class, USER_TEXT);
+        manifests.put(UserFile.class, USER_FILE);
+        manifests.put(LeaveGroup.class, LEAVE_GROUP);
+        manifests.put(CreateGroup.class, CREATE_GROUP);
+        manifests.put(GroupText.class, GROUP_TEXT);
+        manifests.put(GroupFile.class, GROUP_FILE);
+        manifests.put(Inviter.class, INVITER);
+        manifests.put(Invited.class, INVITED);
+        manifests.put(GroupAdd.class, GROUP_ADD);
+        manifests.put(GroupRemove.class, GROUP_REMOVE);
+        manifests.put(CoAdminAdd.class, COADMIN_ADD);
+        manifests.put(CoAdminRemove.class, COADMIN_REMOVE);
+        manifests.put(MuteMember.class, MUTE_MEMBER);
+        manifests.put(UnmuteMember.class, UNMUTE_MEMBER);
+        manifests.put(TextData.class, TEXT_DATA);
+        manifests.put(FileData.class, FILE_DATA);
+        manifests.put(FileChunk.class, FILE_CHUNK);
+        manifests.put(FileOffer.class, FILE_OFFER);
+        manifests.put(FetchChunk.class, FETCH_CHUNK);
+        manifests.put(DataBatch.class, DATA_BATCH);
+        manifests.put(Success.class, SUCCESS);
+        manifests.put(Failure.class, FAILURE);
+        manifests.put(Confirm.class, CONFIRM);
+        manifests.put(Decline.class, DECLINE);
+        manifests.put(BlobStored.class, BLOB_STORED);
+        manifests.put(UserOffline.class, USER_OFFLINE);
+        manifests.put(User.class, USER);
+    }
+
+    private final ExtendedActorSystem system; // Used for resolving actor references
+    private final Compression compression; // Of text, file content and batches
+
+    public MessageSerializer(ExtendedActorSystem system) {
+        this.system = system;
+        this.compression = new Compression(system.settings().config().getConfig("chat.compression"));
+    }
+
+    @Override
+    public int identifier() {
+        return 3553;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        String manifest = manifests.get(o.getClass());
+        if (manifest == null)
+            throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+        return manifest;
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        Output out = new Output();
+        switch (manifest(o)) {
+            case CONNECT:
+                writeUser(out, ((Connect) o).getUser());
+                break;
+            case DISCONNECT:
+                out.writeString(((Disconnect) o).getUsername());
+                break;
+            case FETCH_MAILBOX:
+                out.writeString(((FetchMailbox) o).getUsername());
+                break;
+            case PAUSE_DELIVERY:
+                PauseDelivery pauseDelivery = (PauseDelivery) o;
+                out.writeString(pauseDelivery.getUsername());
+                out.writeByte(pauseDelivery.isPaused() ? 1 : 0);
+                break;
+            case USER_TEXT:
+            case USER_FILE:
+                UserCommand userCommand = (UserCommand) o;
+                out.writeString(userCommand.getSource());
+                out.writeString(userCommand.getTarget());
+                out.writeString(userCommand.getData());
+                break;
+            case LEAVE_GROUP:
+                LeaveGroup leaveGroup = (LeaveGroup) o;
+                out.writeString(leaveGroup.getGroupname());
+                out.writeString(leaveGroup.getUsername());
+                break;
+            case CREATE_GROUP:
+                CreateGroup createGroup = (CreateGroup) o;
+                out.writeString(createGroup.getGroupname());
+                out.writeString(createGroup.getCreator());
+                break;
+            case GROUP_TEXT:
+                GroupText groupText = (GroupText) o;
+                out.writeString(groupText.getGroupname());
+                out.writeString(groupText.getSource());
+                out.writeString(groupText.getMessage());
+                break;
+            case GROUP_FILE:
+                GroupFile groupFile = (GroupFile) o;
+                out.writeString(groupFile.getGroupname());
+                out.writeString(groupFile.getSource());
+                out.writeString(groupFile.getFilename());
+                break;
+            case INVITER:
+            case GROUP_ADD:
+                GroupInvite invite = (GroupInvite) o;
+                writeGroupOperation(out, invite.getGroupname(), invite.getSource(), invite.getTarget());
+                break;
+            case INVITED:
+                Invited invited = (Invited) o;
+                writeGroupOperation(out, invited.getGroupname(), invited.getSource(), invited.getTarget());
+                out.writeString(invited.getInviteId());
+                break;
+            case GROUP_REMOVE:
+                GroupRemove remove = (GroupRemove) o;
+                writeGroupOperation(out, remove.getGroupname(), remove.getSource(), remove.getTarget());
+                break;
+            case COADMIN_ADD:
+            case COADMIN_REMOVE:
+                CoAdminGroupCommand coAdmin = (CoAdminGroupCommand) o;
+                writeGroupOperation(out, coAdmin.getGroupname(), coAdmin.getSource(), coAdmin.getTarget());
+                break;
+            case MUTE_MEMBER:
+            case UNMUTE_MEMBER:
+                MuteCommand mute = (MuteCommand) o;
+                writeGroupOperation(out, mute.getGroupname(), mute.getSource(), mute.getTarget());
+                if (mute instanceof MuteMember)
+                    out.writeLong(((MuteMember) mute).getDuration());
+                break;
+            case TEXT_DATA:
+                TextData text = (TextData) o;
+                out.writeString(text.getSource());
+                out.writeString(text.getTarget());
+                writeText(out, text.getData());
+                break;
+            case FILE_DATA:
+                FileData file = (FileData) o;
+                out.writeString(file.getSource());
+                out.writeString(file.getTarget());
+                out.writeString(file.getFilename());
+                writeFile(out, file.getFilename(), file.getData());
+                break;
+            case FILE_CHUNK:
+                FileChunk chunk = (FileChunk) o;
+                out.writeString(chunk.getSource());
+                out.writeString(chunk.getTarget());
+                out.writeString(chunk.getTransferId());
+                out.writeString(chunk.getFilename());
+                out.writeLong(chunk.getOffset());
+                out.writeLong(chunk.getSize());
+                writeFile(out, chunk.getFilename(), chunk.getData());
+                break;
+            case FILE_OFFER:
+                FileOffer offer = (FileOffer) o;
+                out.writeString(offer.getSource());
+                out.writeString(offer.getTarget());
+                out.writeString(offer.getData());
+                out.writeString(offer.getFilename());
+                out.writeLong(offer.getSize());
+                writeActorRef(out, offer.getStore());
+                break;
+            case DATA_BATCH:
+                DataBatch batch = (DataBatch) o;
+                out.writeString(batch.getTarget());
+                out.writeInt(batch.getData().size());
+                // Every message is written with its own manifest, short messages are compressed together
+                Output items = new Output();
+                for (Data data : batch.getData()) {
+                    items.writeString(manifest(data));
+                    items.writeByteArray(toBinary(data));
+                }
+                byte[] itemBytes = items.toByteArray();
+                byte[] compressedItems = compression.compressText(itemBytes);
+                if (compressedItems == null)
+                    out.write(itemBytes, 0, itemBytes.length);
+                else
+                    writePayload(out, itemBytes, compressedItems);
+                break;
+            case FETCH_CHUNK:
+                FetchChunk fetch = (FetchChunk) o;
+                out.writeString(fetch.getHash());
+                out.writeLong(fetch.getOffset());
+                out.writeInt(fetch.getLength());
+                break;
+            case SUCCESS:
+                writeUser(out, ((Success) o).getUser());
+                break;
+            case FAILURE:
+                Failure failure = (Failure) o;
+                out.writeByte(failure.getReason() == null ? -1 : failure.getReason().ordinal());
+                out.writeString(failure.getData());
+                break;
+            case CONFIRM:
+            case DECLINE:
+                out.writeString(((InviteResponse) o).getInviteId());
+                break;
+            case BLOB_STORED:
+                BlobStored stored = (BlobStored) o;
+                out.writeString(stored.getHash());
+                out.writeLong(stored.getSize());
+                writeActorRef(out, stored.getStore());
+                break;
+            case USER_OFFLINE:
+                out.writeString(((UserOffline) o).getUsername());
+                break;
+            case USER:
+                writeUser(out, (User) o);
+                break;
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        switch (manifest) {
+            case CONNECT:
+                return new Connect(readUser(in));
+            case DISCONNECT:
+                return new Disconnect(readString(in));
+            case FETCH_MAILBOX:
+                return new FetchMailbox(readString(in));
+            case PAUSE_DELIVERY:
+                return new PauseDelivery(readString(in), in.get() != 0);
+            case USER_TEXT:
+                return new UserText(readString(in), readString(in), readString(in));
+            case USER_FILE:
+                return new UserFile(readString(in), readString(in), readString(in));
+            case LEAVE_GROUP:
+                return new LeaveGroup(readString(in), readString(in));
+            case CREATE_GROUP:
+                return new CreateGroup(readString(in), readString(in));
+            case GROUP_TEXT:
+                return new GroupText(readString(in), readString(in), readString(in));
+            case GROUP_FILE:
+                return new GroupFile(readString(in), readString(in), readString(in));
+            case INVITER:
+                return new Inviter(readString(in), readString(in), readString(in));
+            case INVITED:
+                return new Invited(readString(in), readString(in), readString(in), readString(in));
+            case GROUP_ADD:
+                return new GroupAdd(readString(in), readString(in), readString(in));
+            case GROUP_REMOVE:
+                return new GroupRemove(readString(in), readString(in), readString(in));
+            case COADMIN_ADD:
+                return new CoAdminAdd(readString(in), readString(in), readString(in));
+            case COADMIN_REMOVE:
+                return new CoAdminRemove(readString(in), readString(in), readString(in));
+            case MUTE_MEMBER:
+                return new MuteMember(readString(in), readString(in), readString(in), in.getLong());
+            case UNMUTE_MEMBER:
+                return new UnmuteMember(readString(in), readString(in), readString(in));
+            case TEXT_DATA:
+                return new TextData(readString(in), readString(in), readText(in));
+            case FILE_DATA:
+                String source = readString(in);
+                String target = readString(in);
+                String filename = readString(in);
+                return new FileData(source, target, readPayload(in), filename);
+            case FILE_CHUNK:
+                String chunkSource = readString(in);
+                String chunkTarget = readString(in);
+                String transferId = readString(in);
+                String chunkFilename = readString(in);
+                long offset = in.getLong();
+                long size = in.getLong();
+                return new FileChunk(chunkSource, chunkTarget, readPayload(in), transferId, chunkFilename, offset, size);
+            case FILE_OFFER:
+                return new FileOffer(readString(in), readString(in), readString(in), readString(in), in.getLong(), readActorRef(in));
+            case DATA_BATCH:
+                String batchTarget = readString(in);
+                int count = in.getInt();
+                // Messages follow the count unless compressed together
+                ByteBuffer items = in.remaining() >= 4 && in.getInt(in.position()) == COMPRESSED ? ByteBuffer.wrap(readPayload(in)) : in;
+                // Every item takes at least 8 bytes, a count from the wire cannot reserve more than the buffer holds
+                ArrayList<Data> batch = new ArrayList<>(Math.max(0, Math.min(count, items.remaining() / 8)));
+                for (int i = 0; i < count; i++) {
+                    String dataManifest = readString(items);
+                    batch.add((Data) fromBinary(readBytes(items), dataManifest));
+                }
+                return new DataBatch(batchTarget, batch);
+            case FETCH_CHUNK:
+                return new FetchChunk(readString(in), in.getLong(), in.getInt());
+            case SUCCESS:
+                User user = readUser(in);
+                return user == null ? new Success() : new Success(user);
+            case FAILURE:
+                byte reason = in.get();
+                return new Failure(reason < 0 ? null : Reason.values()[reason], readString(in));
+            case CONFIRM:
+                return new Confirm(readString(in));
+            case DECLINE:
+                return new Decline(readString(in));
+            case BLOB_STORED:
+                return new BlobStored(readString(in), in.getLong(), readActorRef(in));
+            case USER_OFFLINE:
+                return new UserOffline(readString(in));
+            case USER:
+                return readUser(in);
+            default:
+                throw new NotSerializableException("Unknown manifest " + manifest);
+        }
+    }
+
+    // Layout shared by the group operations over a target user
+    private void writeGroupOperation(Output out, String groupname, String source, String target) {
+        out.writeString(groupname);
+        out.writeString(source);
+        out.writeString(target);
+    }
+
+    // User is written as its name and the serialized path of its communication actor
+    private void writeUser(Output out, User user) {
+        out.writeByte(user == null ? 0 : 1);
+        if (user == null)
+            return;
+        out.writeString(user.getUsername());
+        writeActorRef(out, user.getCommunicationActor());
+    }
+
+    private User readUser(ByteBuffer in) {
+        if (in.get() == 0)
+            return null;
+        return new User(readString(in), readActorRef(in));
+    }
+
+    // Actor reference is written as its serialized path
+    private void writeActorRef(Output out, ActorRef actor) {
+        out.writeString(actor == null ? null : Serialization.serializedActorPath(actor));
+    }
+
+    private ActorRef readActorRef(ByteBuffer in) {
+        String path = readString(in);
+        return path == null ? null : system.provider().resolveActorRef(path);
+    }
+
+    private void writeText(Output out, String text) {
+        byte[] bytes = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+        writePayload(out, bytes, bytes == null ? null : compression.compressText(bytes));
+    }
+
+    private String readText(ByteBuffer in) throws NotSerializableException {
+        byte[] bytes = readPayload(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeFile(Output out, String filename, byte[] data) {
+        writePayload(out, data, data == null ? null : compression.compressFile(filename, data));
+    }
+
+    // Payload is written like a byte array when not compressed, otherwise as COMPRESSED, its original length and
+    // the compressed bytes, so payloads written before compression existed are still read
+    private static void writePayload(Output out, byte[] data, byte[] compressed) {
+        if (compressed == null) {
+            out.writeByteArray(data);
+            return;
+        }
+        out.writeInt(COMPRESSED);
+        out.writeInt(data.length);
+        out.writeByteArray(compressed);
+    }
+
+    private byte[] readPayload(ByteBuffer in) throws NotSerializableException {
+        int length = in.getInt();
+        if (length != COMPRESSED) {
+            in.position(in.position() - 4);
+            return readBytes(in);
+        }
+        length = in.getInt();
+        try {
+            return compression.decompress(readBytes(in), length);
+        } catch (DataFormatException e) {
+            throw new NotSerializableException("Corrupt compressed payload: " + e.getMessage());
+        }
+    }
+
+    // Strings and byte arrays are length prefixed, -1 stands for null
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        if (length > in.remaining()) // Length from the wire is checked before anything is allocated
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    // Growable output buffer, never throws unlike DataOutputStream
+    static class Output extends ByteArrayOutputStream {
+        Output() {
+            super(64);
+        }
+
+        void writeByte(int value) {
+            write(value);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeByteArray(byte[] bytes) {
+            if (bytes == null) {
+                writeInt(-1);
+                return;
+            }
+            writeInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeString(String value) {
+            writeByteArray(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -1,6 +1,8 @@
+import akka.actor.ActorRef;
+
 import java.io.Serializable;
 
-enum Reason {GROUPNAME, SOURCE, MUTED, TARGET, INGROUP, NOTINGROUP, FORBIDDEN, NOTMUTED}
+enum Reason {GROUPNAME, SOURCE, MUTED, TARGET, INGROUP, NOTINGROUP, FORBIDDEN, NOTMUTED, EVICTED, RATE}
 
 public abstract class Response implements Serializable {}
 
@@ -38,6 +40,65 @@ class Failure extends Response {
     public Failure() {}
 }
 
-class InviteResponse extends Response {}
-class Confirm extends InviteResponse {}
-class Decline extends InviteResponse {}
\ No newline at end of file
+// Answer of an invited user, sent to the inviter
+class InviteResponse extends Response {
+    private String inviteId;
+
+    public InviteResponse(String inviteId) {
+        this.inviteId = inviteId;
+    }
+
+    public String getInviteId() {
+        return inviteId;
+    }
+}
+
+class Confirm extends InviteResponse {
+    public Confirm(String inviteId) {
+        super(inviteId);
+    }
+}
+
+class Decline extends InviteResponse {
+    public Decline(String inviteId) {
+        super(inviteId);
+    }
+}
+
+// File upload completed, the file is kept by the store under its content hash
+class BlobStored extends Response {
+    private String hash;
+    private long size;
+    private ActorRef store;
+
+    public BlobStored(String hash, long size, ActorRef store) {
+        this.hash = hash;
+        this.size = size;
+        this.store = store;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public ActorRef getStore() {
+        return store;
+    }
+}
+
+// Pushed by the server to the users who looked up a user, once that user disconnects
+class UserOffline extends Response {
+    private String username;
+
+    public UserOffline(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,174 @@
+import akka.actor.ActorRef;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Communication actors of the members of a group by user id, split into partitions. Members join and leave in
+// constant time, broadcasts go over an array of each partition which is rebuilt only after a change.
+public class Roster implements Serializable {
+    private RosterPartition[] partitions;
+    private int size = 0;
+    private HashMap<Integer, PausedMember> paused = new HashMap<>(); // Members not sent to until they resume, few
+
+    public Roster(int partitions) {
+        this.partitions = new RosterPartition[partitions];
+        for (int i = 0; i < partitions; i++)
+            this.partitions[i] = new RosterPartition();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    // A member always falls in the same partition, so messages sent through a partition keep their order
+    public int getPartition(int id) {
+        return id % partitions.length;
+    }
+
+    private RosterPartition partitionOf(int id) {
+        return partitions[getPartition(id)];
+    }
+
+    // Add member, or replace the actor of a member
+    public void put(int id, ActorRef actor) {
+        PausedMember member = paused.get(id);
+        if (member != null)
+            member.setActor(actor);
+        else if (partitionOf(id).put(id, actor))
+            size++;
+    }
+
+    public void remove(int id) {
+        paused.remove(id);
+        if (partitionOf(id).remove(id))
+            size--;
+    }
+
+    public ActorRef get(int id) {
+        PausedMember member = paused.get(id);
+        return member != null ? member.getActor() : partitionOf(id).get(id);
+    }
+
+    // Stop sending to member until it resumes
+    public void pause(int id) {
+        ActorRef actor = partitionOf(id).get(id);
+        if (actor == null)
+            return;
+        remove(id);
+        paused.put(id, new PausedMember(actor));
+    }
+
+    // Send to member again, returns the messages it has skipped while paused
+    public int resume(int id) {
+        PausedMember member = paused.remove(id);
+        if (member == null)
+            return 0;
+        put(id, member.getActor());
+        return member.getSkipped();
+    }
+
+    // Count messages sent to the group as skipped by the paused members
+    public void skip(int messages) {
+        for (PausedMember member : paused.values())
+            member.skip(messages);
+    }
+
+    // Members of a partition, the array must not be changed
+    public ActorRef[] snapshot(int partition) {
+        return partitions[partition].snapshot();
+    }
+
+    // Send message to every member
+    public void broadcast(Object msg, ActorRef sender) {
+        for (RosterPartition partition : partitions) {
+            for (ActorRef actor : partition.snapshot())
+                actor.tell(msg, sender);
+        }
+    }
+}
+
+// Members of a roster partition in dense arrays, removal moves the last member to the free position
+class RosterPartition implements Serializable {
+    private static final ActorRef[] EMPTY = new ActorRef[0];
+
+    private int[] ids = new int[4];
+    private ActorRef[] actors = new ActorRef[4];
+    private int size = 0;
+    private IntIntMap positions = new IntIntMap(); // Position of every member in the arrays
+    private ActorRef[] snapshot = EMPTY; // Members as of the last change, null until rebuilt
+
+    // Returns whether the member is new
+    public boolean put(int id, ActorRef actor) {
+        int position = positions.get(id, -1);
+        snapshot = null;
+        if (position >= 0) {
+            actors[position] = actor;
+            return false;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            actors = Arrays.copyOf(actors, size * 2);
+        }
+        ids[size] = id;
+        actors[size] = actor;
+        positions.put(id, size++, -1);
+        return true;
+    }
+
+    public boolean remove(int id) {
+        int position = positions.remove(id, -1);
+        if (position < 0)
+            return false;
+        size--;
+        if (position < size) {
+            ids[position] = ids[size];
+            actors[position] = actors[size];
+            positions.put(ids[position], position, -1);
+        }
+        actors[size] = null;
+        snapshot = null;
+        return true;
+    }
+
+    public ActorRef get(int id) {
+        int position = positions.get(id, -1);
+        return position < 0 ? null : actors[position];
+    }
+
+    public ActorRef[] snapshot() {
+        if (snapshot == null)
+            snapshot = Arrays.copyOf(actors, size);
+        return snapshot;
+    }
+}
+
+// Member of a roster whose deliveries are paused
+class PausedMember implements Serializable {
+    private ActorRef actor;
+    private int skipped = 0; // Messages sent to the group while paused
+
+    public PausedMember(ActorRef actor) {
+        this.actor = actor;
+    }
+
+    public ActorRef getActor() {
+        return actor;
+    }
+
+    public void setActor(ActorRef actor) {
+        this.actor = actor;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void skip(int messages) {
+        skipped += messages;
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns usernames to small int ids, so per membership state is kept in int keyed tables instead of maps of
+// strings. Ids are never reused, a username keeps its id for the life of the process. Thread safe.
+public class UserIds {
+    private static final UserIds instance = new UserIds();
+
+    private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] usernames = new String[1024]; // Username of every id
+
+    public static UserIds get() {
+        return instance;
+    }
+
+    // Id of username, assigned on its first use
+    public int intern(String username) {
+        Integer id = ids.get(username);
+        if (id != null)
+            return id;
+        synchronized (this) {
+            id = ids.get(username);
+            if (id != null)
+                return id;
+            id = ids.size();
+            String[] names = usernames;
+            if (id == names.length)
+                names = Arrays.copyOf(names, names.length * 2);
+            names[id] = username;
+            usernames = names; // Publish the username before the id
+            ids.put(username, id);
+            return id;
+        }
+    }
+
+    // Id of username, -1 if it has never been interned
+    public int find(String username) {
+        Integer id = ids.get(username);
+        return id == null ? -1 : id;
+    }
+
+    public String username(int id) {
+        return usernames[id];
+    }
+}